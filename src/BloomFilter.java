@@ -0,0 +1,86 @@
+/**
+ * A read-only Bloom filter over the words of an index, used to reject words
+ * that are not in the index without looking them up. A word that was added is
+ * always reported as possibly present; a word that was not added is reported
+ * as absent, except for about one word in a hundred.
+ *
+ * Each word sets {@link #HASHES} bits, derived from the word's cached hash
+ * code by double hashing, so checking a word does not read its characters.
+ */
+public class BloomFilter {
+
+	/** The number of bits to use for each word, for about 1% false positives. */
+	private static final int BITS_PER_TERM = 10;
+
+	/** The number of bits set for each word. */
+	private static final int HASHES = 7;
+
+	/** The bits of the filter. */
+	private final long[] bits;
+
+	/** The number of bits in the filter. */
+	private final int size;
+
+	/**
+	 * The constructor. Builds a filter over the given words.
+	 *
+	 * @param terms
+	 *            the words to add to the filter.
+	 */
+	public BloomFilter(String[] terms) {
+		long wanted = Math.max(64L, (long) terms.length * BITS_PER_TERM);
+		int words = (int) Math.min((wanted + 63) / 64, Integer.MAX_VALUE / 64);
+
+		bits = new long[words];
+		size = words * 64;
+
+		for (String term : terms) {
+			long hash = mix(term.hashCode());
+			int h1 = (int) hash;
+			int h2 = (int) (hash >>> 32);
+
+			for (int i = 0; i < HASHES; i++) {
+				int bit = Math.floorMod(h1 + i * h2, size);
+				bits[bit >>> 6] |= 1L << bit;
+			}
+		}
+	}
+
+	/**
+	 * Checks whether a word might have been added to the filter.
+	 *
+	 * @param term
+	 *            the word to look for.
+	 * @return {@code false} if the word was definitely not added, or
+	 *         {@code true} if it might have been.
+	 */
+	public boolean mightContain(String term) {
+		long hash = mix(term.hashCode());
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32);
+
+		for (int i = 0; i < HASHES; i++) {
+			int bit = Math.floorMod(h1 + i * h2, size);
+
+			if ((bits[bit >>> 6] & (1L << bit)) == 0) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Spreads a 32-bit hash code over 64 bits, so that the two halves can be
+	 * used as independent hashes.
+	 */
+	private static long mix(int value) {
+		long hash = value * 0x9E3779B97F4A7C15L;
+		hash ^= hash >>> 33;
+		hash *= 0xFF51AFD7ED558CCDL;
+		hash ^= hash >>> 33;
+		hash *= 0xC4CEB93F0FD1B7FDL;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+}
@@ -0,0 +1,472 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A thread-safe inverted index that locks each word instead of the whole
+ * index. The words are kept in a concurrent sorted map, and the files and
+ * positions of each word are guarded by one of a fixed number of lock stripes,
+ * chosen by the word's hash. Threads that add or search different words
+ * rarely share a stripe, so they almost never wait on one another, even when
+ * every thread calls {@link #add(String, String, Integer)} directly. The words
+ * of each file are also listed, so that removing a file only locks the
+ * stripes of its own words, and words left without any files are dropped.
+ */
+public class ConcurrentInvertedIndex implements MutableIndexInterface {
+
+	/** The default number of lock stripes. */
+	public static final int DEFAULT_STRIPES = 64;
+
+	private static final Logger logger = LogManager.getLogger();
+
+	/**
+	 * The inverted index data structure. The map itself may be used without
+	 * locking, but each word's files must only be used under its stripe.
+	 */
+	private final ConcurrentSkipListMap<String, TreeMap<Integer, PositionList>> index;
+
+	/** The table that the words of the index are interned in. */
+	private final TermTable terms;
+
+	/**
+	 * The table of files that have been added to the index, which is used
+	 * while synchronized on itself.
+	 */
+	private final DocumentTable documents;
+
+	/**
+	 * The words of each file, by file ID, or null for files without any, so
+	 * that a file can be removed without going through every word of the
+	 * index. A word is added to the list of a file while its stripe is
+	 * locked, when the word is first added to the file. The lists are used
+	 * while synchronized on {@link #documents}.
+	 */
+	private final ArrayList<ArrayList<String>> fileWords;
+
+	/** The locks that guard the files of the words. */
+	private final ReadWriteLock[] stripes;
+
+	/**
+	 * The constructor. Instantiates a new index with
+	 * {@link #DEFAULT_STRIPES} lock stripes.
+	 */
+	public ConcurrentInvertedIndex() {
+		this(DEFAULT_STRIPES);
+	}
+
+	/**
+	 * The constructor. Instantiates a new index.
+	 *
+	 * @param stripes
+	 *            the number of lock stripes.
+	 */
+	public ConcurrentInvertedIndex(int stripes) {
+		this.index = new ConcurrentSkipListMap<>(TermTable.ORDER);
+		this.terms = new TermTable();
+		this.documents = new DocumentTable();
+		this.fileWords = new ArrayList<>();
+		this.stripes = new ReadWriteLock[Math.max(1, stripes)];
+
+		for (int i = 0; i < this.stripes.length; i++) {
+			this.stripes[i] = new ReadWriteLock();
+		}
+	}
+
+	/**
+	 * @return the table that the words of the index are interned in.
+	 */
+	@Override
+	public TermTable getTermTable() {
+		return terms;
+	}
+
+	/**
+	 * Adds a word, it's file, and it's position to the index, only locking
+	 * the stripe of the word.
+	 *
+	 * @param word
+	 *            the word to add to the index
+	 * @param file
+	 *            the file that the word is found in
+	 * @param position
+	 *            the position in the file where the word is found
+	 */
+	@Override
+	public void add(String word, String file, Integer position) {
+		word = terms.intern(word);
+
+		int id;
+		synchronized (documents) {
+			id = documents.add(file);
+		}
+
+		ReadWriteLock stripe = stripeOf(word);
+
+		stripe.lockReadWrite();
+		try {
+			TreeMap<Integer, PositionList> postings = getPostings(word);
+			PositionList positions = postings.get(id);
+
+			if (positions == null) {
+				positions = new PositionList();
+				postings.put(id, positions);
+				record(new int[] { id }, new String[] { word }, 1);
+			}
+
+			positions.add(position);
+		} finally {
+			stripe.unlockReadWrite();
+		}
+	}
+
+	/**
+	 * Adds the words of a document to the index. The words are grouped by
+	 * word in a local index first, and then added like
+	 * {@link #addAll(InvertedIndex)}, so that each stripe the document's words
+	 * fall in is only locked once.
+	 *
+	 * @param file
+	 *            the file that the words are found in
+	 * @param words
+	 *            the words of the file, in the order they are found
+	 * @param count
+	 *            the number of words at the start of the array to add
+	 * @param position
+	 *            the position in the file of the first word
+	 * @return the position after the last word that was added
+	 */
+	@Override
+	public int addDocument(String file, String[] words, int count, int position) {
+		InvertedIndex local = new InvertedIndex(terms);
+		position = local.addDocument(file, words, count, position);
+		addAll(local);
+		return position;
+	}
+
+	/**
+	 * Adds the contents of another index to this one. The other index's words
+	 * are grouped by stripe, so that each stripe they fall in is only locked
+	 * once, and its position lists are taken over as they are, or appended to
+	 * the lists of files that are already in this index, without decoding
+	 * them.
+	 *
+	 * @param other
+	 *            the other index.
+	 */
+	@Override
+	public void addAll(InvertedIndex other) {
+		int[] ids;
+		synchronized (documents) {
+			ids = documents.addAll(other.getDocumentTable());
+		}
+
+		boolean interned = other.getTermTable() == terms;
+		ArrayList<ArrayList<Map.Entry<String, TreeMap<Integer, PositionList>>>> striped = new ArrayList<>(
+				stripes.length);
+		for (int i = 0; i < stripes.length; i++) {
+			striped.add(null);
+		}
+
+		for (Map.Entry<String, TreeMap<Integer, PositionList>> entry : other.getIndex().entrySet()) {
+			int stripe = stripeNumberOf(entry.getKey());
+
+			if (striped.get(stripe) == null) {
+				striped.set(stripe, new ArrayList<>());
+			}
+
+			striped.get(stripe).add(entry);
+		}
+
+		for (int i = 0; i < stripes.length; i++) {
+			ArrayList<Map.Entry<String, TreeMap<Integer, PositionList>>> entries = striped.get(i);
+
+			if (entries == null) {
+				continue;
+			}
+
+			String[] words = new String[entries.size()];
+			int total = 0;
+			for (int j = 0; j < words.length; j++) {
+				words[j] = interned ? entries.get(j).getKey() : terms.intern(entries.get(j).getKey());
+				total += entries.get(j).getValue().size();
+			}
+
+			// The files that each word is new to, which are recorded before
+			// the stripe is unlocked.
+			int[] createdIds = new int[total];
+			String[] createdWords = new String[total];
+			int created = 0;
+
+			stripes[i].lockReadWrite();
+			try {
+				for (int j = 0; j < words.length; j++) {
+					TreeMap<Integer, PositionList> postings = getPostings(words[j]);
+
+					for (Map.Entry<Integer, PositionList> added : entries.get(j).getValue().entrySet()) {
+						int id = ids[added.getKey()];
+						PositionList positions = postings.get(id);
+
+						if (positions == null) {
+							added.getValue().trimToSize();
+							postings.put(id, added.getValue());
+							createdIds[created] = id;
+							createdWords[created] = words[j];
+							created++;
+						} else {
+							positions.addAll(added.getValue());
+						}
+					}
+				}
+
+				record(createdIds, createdWords, created);
+			} finally {
+				stripes[i].unlockReadWrite();
+			}
+		}
+	}
+
+	/**
+	 * Removes every word of a file from the index, locking the stripe of one
+	 * of the file's words at a time. Words that are left without any files
+	 * are dropped. The file keeps its ID, so if it is added again later, its
+	 * words are added under the same ID.
+	 *
+	 * @param path
+	 *            the file or URL of the document to remove.
+	 * @return whether the file was in the index.
+	 */
+	@Override
+	public boolean removeDocument(String path) {
+		int id;
+		ArrayList<String> removed;
+
+		synchronized (documents) {
+			id = documents.getId(path);
+
+			if (id < 0 || id >= fileWords.size() || fileWords.get(id) == null) {
+				return false;
+			}
+
+			removed = fileWords.set(id, null);
+		}
+
+		boolean found = false;
+
+		for (String word : removed) {
+			ReadWriteLock stripe = stripeOf(word);
+
+			stripe.lockReadWrite();
+			try {
+				TreeMap<Integer, PositionList> postings = index.get(word);
+
+				if (postings != null && postings.remove(id) != null) {
+					found = true;
+
+					if (postings.isEmpty()) {
+						index.remove(word);
+					}
+				}
+			} finally {
+				stripe.unlockReadWrite();
+			}
+		}
+
+		return found;
+	}
+
+	/**
+	 * Replaces the words of a file with the contents of another index. Unlike
+	 * the segments of a {@link MultiInvertedIndex}, a search made while the
+	 * file is being replaced may find part of either version.
+	 *
+	 * @param path
+	 *            the file or URL of the document to replace.
+	 * @param document
+	 *            the index of the new version of the document.
+	 */
+	@Override
+	public void replaceDocument(String path, InvertedIndex document) {
+		removeDocument(path);
+		addAll(document);
+	}
+
+	/**
+	 * Creates an immutable, read-optimized snapshot of the index. Every stripe
+	 * is locked for reading while the snapshot is made, so it does not include
+	 * half of any write.
+	 *
+	 * @return the frozen snapshot of the index.
+	 */
+	@Override
+	public FrozenIndex freeze() {
+		logger.debug("freeze(): Creating a read-only snapshot.");
+
+		for (ReadWriteLock stripe : stripes) {
+			stripe.lockReadOnly();
+		}
+
+		try {
+			synchronized (documents) {
+				return InvertedIndex.freeze(index, documents);
+			}
+		} finally {
+			for (ReadWriteLock stripe : stripes) {
+				stripe.unlockReadOnly();
+			}
+		}
+	}
+
+	/**
+	 * Searches index for the exact word or words in the query, or for the
+	 * words that start with the prefix or prefixes in the query, and returns
+	 * the best k results. Only the stripe of one word is locked at a time.
+	 *
+	 * @param query
+	 *            an array of search queries or a query.
+	 * @param exact
+	 *            whether to search for exact words instead of prefixes.
+	 * @param limit
+	 *            the most words to expand each prefix into.
+	 * @param k
+	 *            the most results to return.
+	 * @return a sorted list of at most k SearchResult objects.
+	 */
+	@Override
+	public SearchResultList search(String[] query, boolean exact, int limit, int k) {
+		logger.debug("search(): Searching for {}.", Arrays.toString(query));
+		ArrayList<SearchResult> list = new ArrayList<>();
+
+		HashMap<Integer, SearchResult> map = new HashMap<>();
+
+		for (String word : query) {
+			if (exact) {
+				TreeMap<Integer, PositionList> postings = index.get(word);
+
+				if (postings != null) {
+					createSearchResultList(list, map, word, postings);
+				}
+			} else {
+				int expanded = 0;
+
+				for (Map.Entry<String, TreeMap<Integer, PositionList>> entry : index.tailMap(word).entrySet()) {
+
+					if (!entry.getKey().startsWith(word) || expanded >= limit) {
+						break;
+					}
+
+					// A word whose last file is being removed is not counted.
+					if (createSearchResultList(list, map, entry.getKey(), entry.getValue())) {
+						expanded++;
+					}
+				}
+			}
+		}
+
+		return SearchResult.top(list, k);
+	}
+
+	/**
+	 * Adds a SearchResult to the list for each file the word is found in, or
+	 * updates the existing SearchResult if the file was already found by an
+	 * earlier word of the query.
+	 *
+	 * @return whether the word was found in any file.
+	 */
+	private boolean createSearchResultList(ArrayList<SearchResult> list, HashMap<Integer, SearchResult> map,
+			String word, TreeMap<Integer, PositionList> postings) {
+		ReadWriteLock stripe = stripeOf(word);
+
+		stripe.lockReadOnly();
+		try {
+			for (Map.Entry<Integer, PositionList> entry : postings.entrySet()) {
+				int count = entry.getValue().size();
+				int firstPosition = entry.getValue().first();
+
+				SearchResult result = map.get(entry.getKey());
+
+				if (result != null) {
+					result.addCount(count);
+					result.setFirstPosition(firstPosition);
+				} else {
+					String path;
+					synchronized (documents) {
+						path = documents.getPath(entry.getKey());
+					}
+
+					result = new SearchResult(count, firstPosition, path);
+					map.put(entry.getKey(), result);
+					list.add(result);
+				}
+			}
+
+			return !postings.isEmpty();
+		} finally {
+			stripe.unlockReadOnly();
+		}
+	}
+
+	/**
+	 * Returns the files of the given word, adding an empty map for the word if
+	 * it is not in the index yet. Must be called while the word's stripe is
+	 * locked for writing, so that the map is not dropped by
+	 * {@link #removeDocument(String)} before it is written to.
+	 */
+	private TreeMap<Integer, PositionList> getPostings(String word) {
+		TreeMap<Integer, PositionList> postings = index.get(word);
+
+		if (postings == null) {
+			TreeMap<Integer, PositionList> created = new TreeMap<>();
+			postings = index.putIfAbsent(word, created);
+
+			if (postings == null) {
+				postings = created;
+			}
+		}
+
+		return postings;
+	}
+
+	/**
+	 * Records that each of the given words was added to the file with the
+	 * matching ID, for {@link #removeDocument(String)}.
+	 */
+	private void record(int[] ids, String[] added, int count) {
+		if (count == 0) {
+			return;
+		}
+
+		synchronized (documents) {
+			for (int i = 0; i < count; i++) {
+				while (fileWords.size() <= ids[i]) {
+					fileWords.add(null);
+				}
+
+				if (fileWords.get(ids[i]) == null) {
+					fileWords.set(ids[i], new ArrayList<>());
+				}
+
+				fileWords.get(ids[i]).add(added[i]);
+			}
+		}
+	}
+
+	/**
+	 * Returns the lock stripe that guards the files of the given word.
+	 */
+	private ReadWriteLock stripeOf(String word) {
+		return stripes[stripeNumberOf(word)];
+	}
+
+	/**
+	 * Returns the number of the stripe that guards the files of a word.
+	 */
+	private int stripeNumberOf(String word) {
+		return Math.floorMod(word.hashCode(), stripes.length);
+	}
+}
@@ -0,0 +1,97 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Assigns dense integer IDs to the documents (files or URLs) stored in an
+ * inverted index, so that postings can be keyed by a small int instead of
+ * repeating the full path for every word. Paths are only resolved from their
+ * IDs when they are needed, such as when SearchResult objects are built.
+ */
+public class DocumentTable {
+
+	/**
+	 * The path of each document, indexed by its ID.
+	 */
+	private final ArrayList<String> paths;
+
+	/**
+	 * The ID of each document, keyed by its path.
+	 */
+	private final HashMap<String, Integer> ids;
+
+	/**
+	 * The constructor. Instantiates a new, empty document table.
+	 */
+	public DocumentTable() {
+		paths = new ArrayList<>();
+		ids = new HashMap<>();
+	}
+
+	/**
+	 * Returns the ID of the given document, assigning it the next free ID if
+	 * it has not been seen before.
+	 *
+	 * @param path
+	 *            the file or URL of the document.
+	 * @return the ID of the document.
+	 */
+	public int add(String path) {
+		Integer id = ids.get(path);
+
+		if (id == null) {
+			id = paths.size();
+			paths.add(path);
+			ids.put(path, id);
+		}
+
+		return id;
+	}
+
+	/**
+	 * Adds every document of another table to this one, and returns an array
+	 * that maps the other table's IDs to the IDs used by this table.
+	 *
+	 * @param other
+	 *            the other document table.
+	 * @return the IDs in this table, indexed by the IDs in the other table.
+	 */
+	public int[] addAll(DocumentTable other) {
+		int[] mapping = new int[other.size()];
+
+		for (int i = 0; i < mapping.length; i++) {
+			mapping[i] = add(other.getPath(i));
+		}
+
+		return mapping;
+	}
+
+	/**
+	 * Returns the ID of the given document.
+	 *
+	 * @param path
+	 *            the file or URL of the document.
+	 * @return the ID of the document, or -1 if it is not in the table.
+	 */
+	public int getId(String path) {
+		Integer id = ids.get(path);
+		return id == null ? -1 : id;
+	}
+
+	/**
+	 * Returns the path of the document with the given ID.
+	 *
+	 * @param id
+	 *            the ID of the document.
+	 * @return the file or URL of the document.
+	 */
+	public String getPath(int id) {
+		return paths.get(id);
+	}
+
+	/**
+	 * @return the number of documents in this table.
+	 */
+	public int size() {
+		return paths.size();
+	}
+}
@@ -1,4 +1,5 @@
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 
@@ -29,6 +30,39 @@ public class Driver {
 	 * "-results" : Prints out a map of which files words in each query can be
 	 * found in, in order of relevance.
 	 * 
+	 * "-binary" : Writes the index to a compact binary file, "index.bin" by
+	 * default, that can be opened again with "-load".
+	 * 
+	 * "-load" : Opens a binary index file by memory-mapping it, instead of
+	 * building the index from "-dir" or "-url".
+	 * 
+	 * "-expand" : The most words each prefix of a partial search is expanded
+	 * into. Every matching word is used if not provided.
+	 * 
+	 * "-shards" : Used with "-multi", splits the files of the index across the
+	 * given number of shards, which are built and searched at the same time.
+	 * 
+	 * "-stripes" : Used with "-multi", locks each word of the index with one of
+	 * the given number of locks while building, instead of the whole index.
+	 * 
+	 * "-positions" : How much of the positions of each word to keep: "none"
+	 * for only the number of times it is found in each file, "first" for the
+	 * first position as well, or "all", which is the default.
+	 * 
+	 * "-offheap" : Keeps the postings of the built index in direct memory,
+	 * outside of the heap, so they do not add to garbage collection pauses.
+	 * 
+	 * "-watch" : Used with "-multi" and "-dir", keeps the index up to date
+	 * with the directory while the server is running, by indexing only the
+	 * text files that are created, modified, or deleted.
+	 * 
+	 * "-incremental" : Used with "-dir" and "-binary", only parses the text
+	 * files that have changed since the binary index was last written, and
+	 * reuses the rest of it. A manifest of the files is written next to it.
+	 * 
+	 * "-memory" : Builds the index from "-dir" on disk, holding no more than
+	 * about the given number of megabytes of it in memory at once.
+	 * 
 	 * @param args
 	 *            the flags and corresponding data used in creating and
 	 *            utilizing an InvertedIndex
@@ -37,12 +71,27 @@ public class Driver {
 
 		ArgumentParser parser = new ArgumentParser(args);
 		WorkQueue queue = null;
-		InvertedIndex index = null;
+		MutableIndexInterface index = null;
+		MutableIndexInterface multi = null;
+		ShardedInvertedIndex sharded = null;
+		IndexWatcher watcher = null;
+		InvertedIndexInterface frozen = null;
 
 		QueryHelperInterface query = null;
 		InvertedIndexBuilderInterface builder = null;
+		ExternalIndexBuilder external = null;
+		IncrementalIndexBuilder incremental = null;
 		WebCrawlerInterface crawler = null;
 
+		PositionMode positions = PositionMode.ALL;
+		if (parser.hasFlag("-positions")) {
+			try {
+				positions = PositionMode.valueOf(parser.getValue("-positions", "all").toUpperCase());
+			} catch (IllegalArgumentException e) {
+				System.err.println("-positions: Enter none, first, or all after the \"positions\" flag.");
+			}
+		}
+
 		if (parser.hasFlag("-multi")) {
 
 			int threads = 5;
@@ -50,33 +99,81 @@ public class Driver {
 			threads = threads < 1 ? 1 : threads;
 			queue = new WorkQueue(threads);
 
-			MultiInvertedIndex multi = new MultiInvertedIndex();
+			if (parser.hasFlag("-shards")) {
+				int shards = parser.getValue("-shards", threads);
+				sharded = new ShardedInvertedIndex(shards, positions);
+				multi = sharded;
+			} else if (parser.hasFlag("-stripes")) {
+				int stripes = parser.getValue("-stripes", ConcurrentInvertedIndex.DEFAULT_STRIPES);
+				multi = new ConcurrentInvertedIndex(stripes);
+			} else {
+				multi = new MultiInvertedIndex(new TermTable(), positions);
+			}
+
 			index = multi;
 
-			query = new MultiQueryHelper(multi, queue);
 			builder = new MultiInvertedIndexBuilder(multi, queue);
 			crawler = new MultiWebCrawler(multi, queue);
 
 		} else {
 			index = new InvertedIndex();
 
-			query = new QueryHelper(index);
 			builder = new InvertedIndexBuilder(index);
 			crawler = new WebCrawler(index);
 		}
 
-		if (parser.hasFlag("-dir")) {
+		if (parser.hasFlag("-memory")) {
+			int memory = parser.getValue("-memory", ExternalIndexBuilder.DEFAULT_MEMORY);
+			memory = memory < 1 ? ExternalIndexBuilder.DEFAULT_MEMORY : memory;
+
+			try {
+				Path output = Files.createTempFile("index", ".bin");
+				output.toFile().deleteOnExit();
+				external = new ExternalIndexBuilder(output, memory, positions);
+				builder = external;
+			} catch (IOException e) {
+				System.err.println("-memory: Unable to create the index file.");
+			}
+		}
+
+		if (parser.hasFlag("-incremental") && parser.hasFlag("-binary") && external == null) {
+			Path binary = Paths.get(parser.getValue("-binary", "index.bin"));
+			incremental = new IncrementalIndexBuilder(index, queue, binary);
+			builder = incremental;
+		}
+
+		if (parser.hasFlag("-load")) {
+			try {
+				Path path = Paths.get(parser.getValue("-load"));
+				frozen = IndexSegment.open(path);
+			} catch (IOException e) {
+				System.err.println("-load: Unable to open binary index.");
+			} catch (NullPointerException e) {
+				System.err.println("Enter a binary index file after the \"load\" flag.");
+			}
+		}
+
+		if (parser.hasFlag("-dir") && frozen == null) {
 			try {
 				Path path = Paths.get(parser.getValue("-dir"));
+
+				// Watches the directory before it is traversed, so changes made
+				// while it is traversed are applied once the watcher starts.
+				if (parser.hasFlag("-watch") && multi != null && external == null) {
+					watcher = new IndexWatcher(multi, queue);
+					watcher.watch(path);
+				}
+
 				builder.traverse(path);
 			} catch (IOException e) {
 				System.err.println("-dir: Unable to traverse path.");
+				watcher = null;
 			} catch (NullPointerException e) {
 				System.err.println("Enter a directory after the \"dir\" flag.");
 			}
 		}
 
-		if (parser.hasFlag("-url")) {
+		if (parser.hasFlag("-url") && frozen == null && external == null) {
 			try {
 				String url = parser.getValue("-url");
 				crawler.addSeed(url);
@@ -85,15 +182,73 @@ public class Driver {
 			}
 		}
 
+		// Building is done, so the index is only read from now on. Freezes it
+		// into a snapshot that is faster to search and needs no locking, and
+		// lets go of the mutable index so it can be garbage collected. Shards
+		// are frozen one by one, so that they can still be searched in
+		// parallel.
+		// An index built with "-memory" is already on disk and mapped. A
+		// watched index keeps changing, so it is searched as it is instead.
+		boolean offHeap = parser.hasFlag("-offheap");
+		if (frozen == null && watcher != null) {
+			multi.setCompactor(queue);
+			frozen = multi;
+
+			Thread thread = new Thread(watcher);
+			thread.setDaemon(true);
+			thread.start();
+		} else if (frozen == null && external != null && external.getIndex() != null) {
+			frozen = external.getIndex();
+		} else if (frozen == null && incremental != null && incremental.getIndex() != null) {
+			FrozenIndex snapshot = incremental.getIndex().withPositions(positions);
+			frozen = offHeap ? snapshot.offHeap() : snapshot;
+		} else if (frozen == null && sharded != null) {
+			ShardedIndex shards = sharded.freezeShards().withPositions(positions);
+			frozen = offHeap ? shards.offHeap() : shards;
+		} else if (frozen == null) {
+			FrozenIndex snapshot = index.freeze().withPositions(positions);
+			frozen = offHeap ? snapshot.offHeap() : snapshot;
+		}
+		index = null;
+		multi = null;
+		sharded = null;
+		builder = null;
+		external = null;
+		IndexManifest manifest = incremental != null ? incremental.getManifest() : null;
+		incremental = null;
+		crawler = null;
+
+		int limit = parser.getValue("-expand", Integer.MAX_VALUE);
+		limit = limit < 1 ? Integer.MAX_VALUE : limit;
+
+		if (queue != null) {
+			query = new MultiQueryHelper(frozen, queue, limit);
+		} else {
+			query = new QueryHelper(frozen, limit);
+		}
+
 		if (parser.hasFlag("-index")) {
 			try {
 				Path outFile = Paths.get(parser.getValue("-index", "index.json"));
-				index.toJSON(outFile);
+				frozen.toJSON(outFile);
 			} catch (Exception e) {
 				System.err.println("-index: Unable to write to path + outputFile.");
 			}
 		}
 
+		if (parser.hasFlag("-binary")) {
+			try {
+				Path outFile = Paths.get(parser.getValue("-binary", "index.bin"));
+				frozen.toBinary(outFile);
+
+				if (manifest != null) {
+					manifest.write(IndexManifest.of(outFile));
+				}
+			} catch (Exception e) {
+				System.err.println("-binary: Unable to write to path + outputFile.");
+			}
+		}
+
 		if (parser.hasFlag("-exact")) {
 			try {
 				Path file = Paths.get(parser.getValue("-exact"));
@@ -136,7 +291,7 @@ public class Driver {
 		if (parser.hasFlag("-port")) {
 			try {
 				int port = parser.getValue("-port", 8080);
-				SearchEngineServer server = new SearchEngineServer(port, index);
+				SearchEngineServer server = new SearchEngineServer(port, frozen, limit);
 				server.startUp();
 			} catch (Exception e) {
 				System.out.println(e.getMessage());
@@ -0,0 +1,240 @@
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Traverses a given directory and builds an index of its text files that does
+ * not have to fit in the heap. Words are added to an in-memory run until the
+ * run holds as many positions as the memory budget allows, even in the middle
+ * of a file. The run is then frozen and written to a temporary binary file,
+ * and a new run is started that goes on with the rest of the file. Once every
+ * file has been read, the runs are memory-mapped and merged word by word into
+ * the output file, which is opened as the finished index. Only one run, and
+ * the current word and the file paths of each merged run, are ever held in the
+ * heap, so the memory used while building is bounded by the budget instead of
+ * by the size of the files.
+ */
+public class ExternalIndexBuilder implements InvertedIndexBuilderInterface {
+
+	/** The default memory budget of a run, in megabytes. */
+	public static final int DEFAULT_MEMORY = 256;
+
+	/**
+	 * About how many bytes of the heap each position takes up in a run,
+	 * counting its share of the maps of the words and files it is found in.
+	 */
+	private static final int BYTES_PER_POSITION = 32;
+
+	private static final Logger logger = LogManager.getLogger();
+
+	/** The binary file that the finished index is written to. */
+	private final Path output;
+
+	/** The most positions to hold in a run before it is written out. */
+	private final long budget;
+
+	/** How much of the positions to keep. */
+	private final PositionMode mode;
+
+	/** The finished index, once a directory has been traversed. */
+	private FrozenIndex index;
+
+	/**
+	 * The constructor.
+	 *
+	 * @param output
+	 *            the binary file to write the finished index to.
+	 * @param memory
+	 *            the most memory a run may use, in megabytes.
+	 * @param mode
+	 *            how much of the positions to keep.
+	 */
+	public ExternalIndexBuilder(Path output, int memory, PositionMode mode) {
+		this.output = output;
+		this.budget = Math.max(1, (long) memory * 1024 * 1024 / BYTES_PER_POSITION);
+		this.mode = mode;
+		this.index = null;
+	}
+
+	/**
+	 * Traverses a given directory and goes through every file, writing the
+	 * words of its text files to runs on disk, and then merges the runs into
+	 * the output file.
+	 *
+	 * @param path
+	 *            the directory to start traversing from
+	 * @throws IOException
+	 */
+	@Override
+	public void traverse(Path path) throws IOException {
+		Path directory = Files.createTempDirectory(output.toAbsolutePath().getParent(), "runs");
+		ArrayList<Path> runs = new ArrayList<>();
+
+		try {
+			Run run = traverse(path, new Run(), directory, runs);
+			flush(run, directory, runs);
+
+			IndexSegment.Reader[] parts = new IndexSegment.Reader[runs.size()];
+			for (int i = 0; i < parts.length; i++) {
+				parts[i] = new IndexSegment.Reader(runs.get(i));
+			}
+
+			logger.debug("traverse(): Merging {} runs into {}.", parts.length, output);
+			FrozenIndex.merge(output, mode, parts);
+		} finally {
+			for (Path run : runs) {
+				Files.deleteIfExists(run);
+			}
+
+			Files.deleteIfExists(directory);
+		}
+
+		index = IndexSegment.open(output);
+	}
+
+	/**
+	 * @return the finished index, mapped from the output file, or null if no
+	 *         directory has been traversed yet.
+	 */
+	public FrozenIndex getIndex() {
+		return index;
+	}
+
+	/**
+	 * Adds the text files under the given directory to the current run,
+	 * writing it out and starting a new one whenever it is full.
+	 *
+	 * @return the current run.
+	 */
+	private Run traverse(Path path, Run run, Path directory, ArrayList<Path> runs) throws IOException {
+		try (DirectoryStream<Path> listing = Files.newDirectoryStream(path)) {
+			for (Path file : listing) {
+				if (Files.isDirectory(file)) {
+					run = traverse(file, run, directory, runs);
+				} else if (InvertedIndexBuilderInterface.isTextFile(file)) {
+					run = parse(file, run, directory, runs);
+				}
+			}
+		}
+
+		return run;
+	}
+
+	/**
+	 * Adds the words of a text file to the current run, writing it out and
+	 * starting a new one as soon as it is full, even in the middle of the file.
+	 * A file that cannot be read is logged and skipped, keeping any of its
+	 * words that were read before the error, so that one bad file does not
+	 * stop the build. Only a run that cannot be written out stops it.
+	 *
+	 * @return the current run.
+	 * @throws IOException
+	 *             if a run cannot be written out.
+	 */
+	private Run parse(Path file, Run run, Path directory, ArrayList<Path> runs) throws IOException {
+		String location = file.normalize().toString();
+		Tokenizer tokenizer = new Tokenizer();
+		int position = 1;
+		TextFileReader reader;
+
+		try {
+			reader = new TextFileReader(file);
+		} catch (IOException e) {
+			logger.warn("Unable to read {}", file);
+			logger.catching(Level.DEBUG, e);
+			return run;
+		}
+
+		try {
+			while (read(reader, tokenizer, file)) {
+				String[] words = tokenizer.words();
+				int start = 0;
+
+				while (start < tokenizer.size()) {
+					int count = (int) Math.min(tokenizer.size() - start, budget - run.positions);
+					String[] slice = start == 0 ? words : Arrays.copyOfRange(words, start, start + count);
+
+					position = run.addDocument(location, slice, count, position);
+					start += count;
+
+					if (run.positions >= budget) {
+						flush(run, directory, runs);
+						run = new Run();
+					}
+				}
+
+				tokenizer.clear();
+			}
+		} finally {
+			reader.close();
+		}
+
+		return run;
+	}
+
+	/**
+	 * Reads the next buffer of words of a file, giving up on the rest of the
+	 * file if it cannot be read.
+	 *
+	 * @return whether more of the file was read.
+	 */
+	private static boolean read(TextFileReader reader, Tokenizer tokenizer, Path file) {
+		try {
+			return reader.read(tokenizer);
+		} catch (IOException e) {
+			logger.warn("Unable to read {}", file);
+			logger.catching(Level.DEBUG, e);
+			return false;
+		}
+	}
+
+	/**
+	 * Freezes a run and writes it to a new file in the given directory, unless
+	 * it is empty.
+	 */
+	private void flush(Run run, Path directory, ArrayList<Path> runs) throws IOException {
+		if (run.positions == 0) {
+			return;
+		}
+
+		Path file = Files.createTempFile(directory, "run", ".bin");
+		runs.add(file);
+
+		logger.debug("flush(): Writing run of {} positions to {}.", run.positions, file);
+		run.freeze().withPositions(mode).toBinary(file);
+	}
+
+	/**
+	 * An index that counts the positions added to it. Each run has a term
+	 * table of its own, so the words of a run can be collected once it has
+	 * been written out.
+	 */
+	private static class Run extends InvertedIndex {
+
+		private long positions;
+
+		public Run() {
+			super();
+			positions = 0;
+		}
+
+		@Override
+		public void add(String word, String file, Integer position) {
+			super.add(word, file, position);
+			positions++;
+		}
+
+		@Override
+		public int addDocument(String file, String[] words, int count, int position) {
+			this.positions += count;
+			return super.addDocument(file, words, count, position);
+		}
+	}
+}
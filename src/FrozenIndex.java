@@ -0,0 +1,1035 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.PrimitiveIterator;
+import java.util.PriorityQueue;
+import java.util.TreeSet;
+
+/**
+ * An immutable, read-optimized snapshot of an {@link InvertedIndex}, created
+ * by {@link InvertedIndex#freeze()} once building is done. Instead of nested
+ * TreeMaps, the words are kept in a sorted array that is searched with binary
+ * search, or with a {@link TermDictionary} prefix tree for partial search, and
+ * the files and positions of all words are packed one after the other into
+ * flat arrays that are scanned in order. The count and first position of each
+ * posting are stored in arrays of their own, so search never has to decode the
+ * positions. Files are numbered in path order, so
+ * the files of each word are also sorted by path.
+ *
+ * The flat arrays are held in buffers, so that a snapshot can also be opened
+ * straight from a memory-mapped binary file by {@link IndexSegment#open(Path)}
+ * without reading the postings onto the heap.
+ *
+ * Since nothing can change once it is created, the snapshot can be searched by
+ * any number of threads without locking. A file is removed from a snapshot by
+ * making a copy that shares all of its arrays, but marks the file with a
+ * tombstone so that search skips it. The postings of removed files are only
+ * dropped once the snapshot is compacted or merged.
+ */
+public class FrozenIndex implements InvertedIndexInterface, IndexReaderInterface {
+
+	/** The words of the index, in sorted order. */
+	private final String[] terms;
+
+	/**
+	 * The prefix tree and Bloom filter over the words, which are only built
+	 * once they are first searched, and are shared by copies of the snapshot.
+	 */
+	private final Lookup lookup;
+
+	/**
+	 * The offset of the first posting of each word, plus one final entry for
+	 * the end of the last word.
+	 */
+	private final IntBuffer postingStarts;
+
+	/** The file ID of each posting. */
+	private final IntBuffer documents;
+
+	/** The number of times the word of each posting is found in its file. */
+	private final IntBuffer counts;
+
+	/**
+	 * The first position of the word of each posting in its file, which is
+	 * empty if no positions are kept.
+	 */
+	private final IntBuffer firsts;
+
+	/**
+	 * The offset of the first position byte of each posting, plus one final
+	 * entry for the end of the last posting, which is empty unless every
+	 * position is kept.
+	 */
+	private final IntBuffer positionStarts;
+
+	/**
+	 * The packed, compressed positions of all postings, which is empty unless
+	 * every position is kept.
+	 */
+	private final ByteBuffer positions;
+
+	/** The path of each file, indexed by file ID. */
+	private final String[] paths;
+
+	/**
+	 * How much of the positions are kept. With {@link PositionMode#FIRST},
+	 * only the first position of each posting is kept, in the first positions,
+	 * and with {@link PositionMode#NONE} there are no first positions either.
+	 */
+	private final PositionMode mode;
+
+	/** The IDs of the removed files, or null if no file has been removed. */
+	private final BitSet removed;
+
+	/**
+	 * The constructor. Takes ownership of the given arrays, which must not be
+	 * changed afterwards.
+	 *
+	 * @param terms
+	 *            the words of the index, in sorted order.
+	 * @param postingStarts
+	 *            the offset of the first posting of each word, plus the end.
+	 * @param documents
+	 *            the file ID of each posting.
+	 * @param counts
+	 *            the number of positions of each posting.
+	 * @param firsts
+	 *            the first position of each posting.
+	 * @param positionStarts
+	 *            the offset of the positions of each posting, plus the end.
+	 * @param positions
+	 *            the packed positions of all postings.
+	 * @param paths
+	 *            the path of each file, in sorted order.
+	 */
+	public FrozenIndex(String[] terms, int[] postingStarts, int[] documents, int[] counts, int[] firsts,
+			int[] positionStarts, byte[] positions, String[] paths) {
+		this(terms, IntBuffer.wrap(postingStarts), IntBuffer.wrap(documents), IntBuffer.wrap(counts),
+				IntBuffer.wrap(firsts), IntBuffer.wrap(positionStarts), ByteBuffer.wrap(positions), paths,
+				PositionMode.ALL);
+	}
+
+	/**
+	 * The constructor for a snapshot whose arrays are held in buffers, such as
+	 * the views of a memory-mapped file. Only absolute reads are made, so the
+	 * buffers' positions and limits are never changed.
+	 *
+	 * @param terms
+	 *            the words of the index, in sorted order.
+	 * @param postingStarts
+	 *            the offset of the first posting of each word, plus the end.
+	 * @param documents
+	 *            the file ID of each posting.
+	 * @param counts
+	 *            the number of positions of each posting.
+	 * @param firsts
+	 *            the first position of each posting, which is not read if no
+	 *            positions are kept.
+	 * @param positionStarts
+	 *            the offset of the positions of each posting, plus the end,
+	 *            which is not read unless every position is kept.
+	 * @param positions
+	 *            the packed positions of all postings, which are not read
+	 *            unless every position is kept.
+	 * @param paths
+	 *            the path of each file, in sorted order.
+	 * @param mode
+	 *            how much of the positions are kept.
+	 */
+	public FrozenIndex(String[] terms, IntBuffer postingStarts, IntBuffer documents, IntBuffer counts,
+			IntBuffer firsts, IntBuffer positionStarts, ByteBuffer positions, String[] paths, PositionMode mode) {
+		this(terms, new Lookup(terms), postingStarts, documents, counts, firsts, positionStarts, positions, paths,
+				mode, null);
+	}
+
+	/**
+	 * The constructor for a copy of a snapshot, which shares its words, prefix
+	 * tree, and Bloom filter.
+	 */
+	private FrozenIndex(String[] terms, Lookup lookup, IntBuffer postingStarts, IntBuffer documents,
+			IntBuffer counts, IntBuffer firsts, IntBuffer positionStarts, ByteBuffer positions, String[] paths,
+			PositionMode mode, BitSet removed) {
+		this.terms = terms;
+		this.lookup = lookup;
+		this.postingStarts = postingStarts;
+		this.documents = documents;
+		this.counts = counts;
+		this.firsts = firsts;
+		this.positionStarts = positionStarts;
+		this.positions = positions;
+		this.paths = paths;
+		this.mode = mode;
+		this.removed = removed;
+	}
+
+	/**
+	 * @return the number of words in the index.
+	 */
+	@Override
+	public int size() {
+		return terms.length;
+	}
+
+	/**
+	 * Checks whether the index might include the given word, without looking
+	 * it up. Most words that are not in the index are rejected this way.
+	 *
+	 * @param word
+	 *            the word to look for.
+	 * @return {@code false} if the word is definitely not in the index.
+	 */
+	public boolean mightContain(String word) {
+		return lookup.getFilter().mightContain(word);
+	}
+
+	/**
+	 * Checks whether any of the given indexes might include any of the given
+	 * words, so that an exact search for words that are in none of them can
+	 * be skipped altogether.
+	 *
+	 * @param indexes
+	 *            the indexes to check.
+	 * @param words
+	 *            the words to look for.
+	 * @return {@code false} if none of the words are in any of the indexes.
+	 */
+	public static boolean mightContainAny(FrozenIndex[] indexes, String[] words) {
+		for (FrozenIndex index : indexes) {
+			for (String word : words) {
+				if (index.mightContain(word)) {
+					return true;
+				}
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * @param term
+	 *            the ordinal of a word.
+	 * @return the word with the given ordinal.
+	 */
+	@Override
+	public String getTerm(int term) {
+		return terms[term];
+	}
+
+	/**
+	 * @param term
+	 *            the ordinal of a word.
+	 * @return the first posting of the word.
+	 */
+	@Override
+	public int getPostingStart(int term) {
+		return postingStarts.get(term);
+	}
+
+	/**
+	 * @param term
+	 *            the ordinal of a word.
+	 * @return the posting just past the last posting of the word.
+	 */
+	@Override
+	public int getPostingEnd(int term) {
+		return postingStarts.get(term + 1);
+	}
+
+	/**
+	 * @return the number of postings in the index, one for each word in each
+	 *         file it is found in.
+	 */
+	public int getPostingCount() {
+		return postingStarts.get(terms.length);
+	}
+
+	/**
+	 * @param posting
+	 *            the number of a posting.
+	 * @return the ID of the file of the posting.
+	 */
+	@Override
+	public int getDocument(int posting) {
+		return documents.get(posting);
+	}
+
+	/**
+	 * @param posting
+	 *            the number of a posting.
+	 * @return the number of times the word is found in the file.
+	 */
+	@Override
+	public int getCount(int posting) {
+		return counts.get(posting);
+	}
+
+	/**
+	 * @param posting
+	 *            the number of a posting.
+	 * @return the first position of the word in the file, or 0 if no
+	 *         positions are kept.
+	 */
+	@Override
+	public int getFirstPosition(int posting) {
+		return mode == PositionMode.NONE ? 0 : firsts.get(posting);
+	}
+
+	/**
+	 * @param posting
+	 *            the number of a posting.
+	 * @return an iterator over the positions of the word in the file that are
+	 *         kept, which is all of them with {@link PositionMode#ALL}.
+	 */
+	@Override
+	public PrimitiveIterator.OfInt getPositions(int posting) {
+		if (mode != PositionMode.ALL) {
+			ByteBuffer packed = pack(mode, getFirstPosition(posting));
+			return PositionList.decode(packed, packed.position(), packed.limit());
+		}
+
+		return PositionList.decode(positions, positionStarts.get(posting), positionStarts.get(posting + 1));
+	}
+
+	/**
+	 * @param posting
+	 *            the number of a posting.
+	 * @return a view of the packed positions of the posting, between its
+	 *         position and limit.
+	 * @see PositionList#decode(ByteBuffer, int, int)
+	 */
+	@Override
+	public ByteBuffer getPackedPositions(int posting) {
+		if (mode != PositionMode.ALL) {
+			return pack(mode, getFirstPosition(posting));
+		}
+
+		ByteBuffer bytes = positions.duplicate();
+		bytes.limit(positionStarts.get(posting + 1));
+		bytes.position(positionStarts.get(posting));
+		return bytes;
+	}
+
+	/**
+	 * @return how much of the positions are kept.
+	 */
+	@Override
+	public PositionMode getPositionMode() {
+		return mode;
+	}
+
+	/**
+	 * @return the number of files in the index.
+	 */
+	@Override
+	public int getDocumentCount() {
+		return paths.length;
+	}
+
+	/**
+	 * @param document
+	 *            the ID of a file.
+	 * @return the path of the file.
+	 */
+	@Override
+	public String getPath(int document) {
+		return paths[document];
+	}
+
+	/**
+	 * @param document
+	 *            the ID of a file.
+	 * @return whether the file has been removed from the snapshot.
+	 */
+	@Override
+	public boolean isRemoved(int document) {
+		return removed != null && removed.get(document);
+	}
+
+	/**
+	 * @return the number of files that have been removed from the snapshot,
+	 *         but whose postings have not been dropped yet.
+	 */
+	public int getRemovedCount() {
+		return removed == null ? 0 : removed.cardinality();
+	}
+
+	/**
+	 * @param path
+	 *            the path of a file.
+	 * @return whether the file is in the snapshot and has not been removed.
+	 */
+	public boolean containsDocument(String path) {
+		int document = Arrays.binarySearch(paths, path);
+		return document >= 0 && !isRemoved(document);
+	}
+
+	/**
+	 * Returns a copy of the snapshot with a tombstone on the given file, so
+	 * that it is no longer found by search. The copy shares all of the arrays
+	 * of this snapshot, so removing a file takes no more than copying the set
+	 * of removed files.
+	 *
+	 * @param path
+	 *            the path of the file to remove.
+	 * @return the snapshot without the file, or this snapshot if the file is
+	 *         not in it.
+	 */
+	public FrozenIndex withoutDocument(String path) {
+		return withoutDocuments(Collections.singletonList(path));
+	}
+
+	/**
+	 * Returns a copy of the snapshot with a tombstone on each of the given
+	 * files, like {@link #withoutDocument(String)}.
+	 *
+	 * @param paths
+	 *            the paths of the files to remove.
+	 * @return the snapshot without the files, or this snapshot if none of the
+	 *         files are in it.
+	 */
+	public FrozenIndex withoutDocuments(Iterable<String> paths) {
+		BitSet next = null;
+
+		for (String path : paths) {
+			int document = Arrays.binarySearch(this.paths, path);
+
+			if (document >= 0 && !isRemoved(document)) {
+				if (next == null) {
+					next = removed == null ? new BitSet(this.paths.length) : (BitSet) removed.clone();
+				}
+
+				next.set(document);
+			}
+		}
+
+		if (next == null) {
+			return this;
+		}
+
+		return new FrozenIndex(terms, lookup, postingStarts, documents, counts, firsts, positionStarts, positions,
+				this.paths, mode, next);
+	}
+
+	/**
+	 * Returns a copy of the snapshot without the postings of its removed
+	 * files, or this snapshot if no file has been removed.
+	 *
+	 * @return the compacted snapshot.
+	 */
+	public FrozenIndex compact() {
+		if (removed == null) {
+			return this;
+		}
+
+		return merge(mode, this);
+	}
+
+	/**
+	 * Searches index for the exact word or words in the query, or for the
+	 * words that start with the prefix or prefixes in the query, and puts
+	 * those words' location in terms of file, count, and size into a
+	 * SearchResult object. Only the best k SearchResult objects are returned.
+	 *
+	 * Exact words are found with binary search, after most missing words are
+	 * rejected by the Bloom filter. The words that start with each prefix are
+	 * found by walking the prefix down the {@link TermDictionary}, instead of
+	 * comparing against each word.
+	 *
+	 * @param query
+	 *            an array of search queries or a query.
+	 * @param exact
+	 *            whether to search for exact words instead of prefixes.
+	 * @param limit
+	 *            the most words to expand each prefix into.
+	 * @param k
+	 *            the most results to return.
+	 * @return a sorted list of at most k SearchResult objects.
+	 */
+	@Override
+	public SearchResultList search(String[] query, boolean exact, int limit, int k) {
+		ArrayList<SearchResult> list = new ArrayList<>();
+
+		HashMap<Integer, SearchResult> map = new HashMap<>();
+
+		// Goes through each word in this query.
+		for (String word : query) {
+			if (exact) {
+				int term = mightContain(word) ? Arrays.binarySearch(terms, word) : -1;
+
+				if (term >= 0) {
+					createSearchResultList(list, map, term);
+				}
+			} else {
+				int[] range = lookup.getDictionary().prefixRange(word);
+				int end = (int) Math.min(range[1], (long) range[0] + limit);
+
+				for (int term = range[0]; term < end; term++) {
+					createSearchResultList(list, map, term);
+				}
+			}
+		}
+
+		return SearchResult.top(list, k);
+	}
+
+	/**
+	 * Adds a SearchResult to the list for each file the word is found in, or
+	 * updates the existing SearchResult if the file was already found by an
+	 * earlier word of the query. Only reads the precomputed count and first
+	 * position of each posting, never its packed positions.
+	 */
+	private void createSearchResultList(ArrayList<SearchResult> list, HashMap<Integer, SearchResult> map, int term) {
+		int end = postingStarts.get(term + 1);
+
+		for (int posting = postingStarts.get(term); posting < end; posting++) {
+			int document = documents.get(posting);
+
+			if (isRemoved(document)) {
+				continue;
+			}
+
+			int count = counts.get(posting);
+			int firstPosition = mode == PositionMode.NONE ? 0 : firsts.get(posting);
+
+			SearchResult result = map.get(document);
+
+			if (result != null) {
+				result.addCount(count);
+				result.setFirstPosition(firstPosition);
+			} else {
+				result = new SearchResult(count, firstPosition, paths[document]);
+				map.put(document, result);
+				list.add(result);
+			}
+		}
+	}
+
+	/**
+	 * Copies the postings and positions of the snapshot into direct buffers,
+	 * outside of the heap. Only the words, the prefix tree, and the file paths
+	 * stay on the heap, so the garbage collector no longer has to scan or copy
+	 * the postings, which make up most of a large index. Direct memory is
+	 * limited by the -XX:MaxDirectMemorySize option of the JVM. A snapshot with
+	 * removed files is compacted first.
+	 *
+	 * @return the copy of the snapshot held in direct buffers.
+	 */
+	public FrozenIndex offHeap() {
+		if (removed != null) {
+			return compact().offHeap();
+		}
+
+		int postingCount = getPostingCount();
+
+		int firstCount = mode == PositionMode.NONE ? 0 : postingCount;
+		int startCount = mode == PositionMode.ALL ? postingCount + 1 : 0;
+		int byteCount = mode == PositionMode.ALL ? positionStarts.get(postingCount) : 0;
+
+		return new FrozenIndex(terms, lookup, direct(postingStarts, terms.length + 1),
+				direct(documents, postingCount), direct(counts, postingCount), direct(firsts, firstCount),
+				direct(positionStarts, startCount), direct(positions, byteCount), paths, mode, null);
+	}
+
+	/**
+	 * Copies the first count integers of a buffer into a new direct buffer in
+	 * the platform's native byte order.
+	 */
+	private static IntBuffer direct(IntBuffer ints, int count) {
+		IntBuffer source = ints.duplicate();
+		source.position(0);
+		source.limit(count);
+
+		IntBuffer copy = ByteBuffer.allocateDirect(count * Integer.BYTES).order(ByteOrder.nativeOrder()).asIntBuffer();
+		copy.put(source);
+		return copy;
+	}
+
+	/**
+	 * Copies the first count bytes of a buffer into a new direct buffer.
+	 */
+	private static ByteBuffer direct(ByteBuffer bytes, int count) {
+		ByteBuffer source = bytes.duplicate();
+		source.position(0);
+		source.limit(count);
+
+		ByteBuffer copy = ByteBuffer.allocateDirect(count);
+		copy.put(source);
+		return copy;
+	}
+
+	/**
+	 * Returns a copy of the snapshot that keeps no more than the given amount
+	 * of the positions, or this snapshot if it already keeps no more than that.
+	 * The counts of the postings stay the same.
+	 *
+	 * @param mode
+	 *            how much of the positions to keep.
+	 * @return the snapshot that keeps no more than the given positions.
+	 */
+	public FrozenIndex withPositions(PositionMode mode) {
+		if (mode.compareTo(this.mode) >= 0) {
+			return this;
+		}
+
+		return merge(mode, this);
+	}
+
+	/**
+	 * Merges several snapshots into one new snapshot. The files of all of the
+	 * snapshots are renumbered together in path order. A file that is found in
+	 * more than one snapshot is treated as the same file, and its positions for
+	 * each word are combined; files that are only in one snapshot have their
+	 * packed positions copied over as they are, without decoding them. The
+	 * merged snapshot keeps no more positions than the snapshot that keeps the
+	 * least, and if not every position is kept, the counts of a file that is in
+	 * more than one snapshot are added together. The postings of removed files
+	 * are dropped, along with words that are left without any postings.
+	 *
+	 * @param parts
+	 *            the snapshots to merge.
+	 * @return the merged snapshot.
+	 */
+	public static FrozenIndex merge(FrozenIndex... parts) {
+		if (parts.length == 1) {
+			return parts[0];
+		}
+
+		return merge(PositionMode.ALL, parts);
+	}
+
+	/**
+	 * Merges several indexes like {@link #merge(FrozenIndex...)}, but streams
+	 * the merged index onto a binary file instead of building it in memory, so
+	 * that the merged index does not have to fit in the heap. The indexes may
+	 * be {@link IndexSegment.Reader}s, which read their words from the mapped
+	 * file one at a time, so that the words of the parts do not have to fit in
+	 * the heap either. The file can be opened with
+	 * {@link IndexSegment#open(Path)}.
+	 *
+	 * @param output
+	 *            the binary file to write the merged index to.
+	 * @param mode
+	 *            the most positions to keep.
+	 * @param parts
+	 *            the indexes to merge.
+	 * @throws IOException
+	 */
+	public static void merge(Path output, PositionMode mode, IndexReaderInterface... parts) throws IOException {
+		for (IndexReaderInterface part : parts) {
+			mode = PositionMode.least(mode, part.getPositionMode());
+		}
+
+		String[] paths = mergePaths(parts);
+
+		try (IndexSegment.Writer writer = new IndexSegment.Writer(output, mode)) {
+			mergeInto(parts, paths, mode, writer);
+			writer.finish(paths);
+		}
+	}
+
+	/**
+	 * Merges several snapshots in memory, keeping no more than the given
+	 * amount of the positions.
+	 */
+	private static FrozenIndex merge(PositionMode mode, FrozenIndex... parts) {
+		for (FrozenIndex part : parts) {
+			mode = PositionMode.least(mode, part.mode);
+		}
+
+		String[] paths = mergePaths(parts);
+		Appender appender = new Appender(mode);
+
+		try {
+			mergeInto(parts, paths, mode, appender);
+		} catch (IOException e) {
+			// The appender only writes to memory, so this never happens.
+			throw new UncheckedIOException(e);
+		}
+
+		return appender.toFrozenIndex(paths);
+	}
+
+	/**
+	 * Returns the paths of the files of all of the indexes that have not been
+	 * removed, without duplicates, in sorted order.
+	 */
+	private static String[] mergePaths(IndexReaderInterface... parts) {
+		TreeSet<String> sorted = new TreeSet<>();
+		for (IndexReaderInterface part : parts) {
+			for (int document = 0; document < part.getDocumentCount(); document++) {
+				if (!part.isRemoved(document)) {
+					sorted.add(part.getPath(document));
+				}
+			}
+		}
+
+		return sorted.toArray(new String[sorted.size()]);
+	}
+
+	/**
+	 * Merges the words and postings of several indexes into a writer, with
+	 * the files renumbered by their place in the given paths. The indexes are
+	 * merged word by word, with a heap of the indexes ordered by the next word
+	 * of each one, so any number of indexes can be merged at once. The words
+	 * of each index are read in order, one at a time.
+	 */
+	private static void mergeInto(final IndexReaderInterface[] parts, String[] paths, PositionMode mode,
+			IndexWriterInterface writer) throws IOException {
+		int[][] ids = new int[parts.length][];
+		for (int p = 0; p < parts.length; p++) {
+			ids[p] = new int[parts[p].getDocumentCount()];
+
+			for (int document = 0; document < ids[p].length; document++) {
+				ids[p][document] = Arrays.binarySearch(paths, parts[p].getPath(document));
+			}
+		}
+
+		final int[] cursors = new int[parts.length];
+		PriorityQueue<Integer> queue = new PriorityQueue<>(Math.max(1, parts.length), new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return parts[a].getTerm(cursors[a]).compareTo(parts[b].getTerm(cursors[b]));
+			}
+		});
+
+		for (int p = 0; p < parts.length; p++) {
+			if (parts[p].size() > 0) {
+				queue.add(p);
+			}
+		}
+
+		int[] holders = new int[parts.length];
+
+		while (!queue.isEmpty()) {
+			// Takes every part whose next word is the smallest word left.
+			String term = parts[queue.peek()].getTerm(cursors[queue.peek()]);
+			int found = 0;
+			int total = 0;
+
+			while (!queue.isEmpty() && parts[queue.peek()].getTerm(cursors[queue.peek()]).equals(term)) {
+				int p = queue.poll();
+				holders[found++] = p;
+				total += parts[p].getPostingEnd(cursors[p]) - parts[p].getPostingStart(cursors[p]);
+			}
+
+			// Sorts the word's postings from every part by new file ID,
+			// keeping the index of each posting in the lower half of its key.
+			long[] order = new long[total];
+			int[] owners = new int[total];
+			int[] postings = new int[total];
+			int i = 0;
+			for (int h = 0; h < found; h++) {
+				int p = holders[h];
+				int end = parts[p].getPostingEnd(cursors[p]);
+
+				for (int posting = parts[p].getPostingStart(cursors[p]); posting < end; posting++) {
+					int document = parts[p].getDocument(posting);
+
+					if (parts[p].isRemoved(document)) {
+						continue;
+					}
+
+					order[i] = ((long) ids[p][document] << 32) | i;
+					owners[i] = p;
+					postings[i] = posting;
+					i++;
+				}
+
+				cursors[p]++;
+				if (cursors[p] < parts[p].size()) {
+					queue.add(p);
+				}
+			}
+			total = i;
+			Arrays.sort(order, 0, total);
+
+			// Words whose postings were all removed are left out.
+			if (total == 0) {
+				continue;
+			}
+
+			writer.addTerm(term);
+
+			for (int start = 0; start < total;) {
+				int document = (int) (order[start] >>> 32);
+				int end = start + 1;
+
+				while (end < total && (int) (order[end] >>> 32) == document) {
+					end++;
+				}
+
+				if (end - start == 1) {
+					int j = (int) order[start];
+					IndexReaderInterface part = parts[owners[j]];
+					int first = part.getFirstPosition(postings[j]);
+
+					writer.addPosting(document, part.getCount(postings[j]), first,
+							mode == PositionMode.ALL ? part.getPackedPositions(postings[j]) : pack(mode, first));
+				} else if (mode != PositionMode.ALL) {
+					int count = 0;
+					int first = Integer.MAX_VALUE;
+
+					for (int k = start; k < end; k++) {
+						int j = (int) order[k];
+						count += parts[owners[j]].getCount(postings[j]);
+						first = Math.min(first, parts[owners[j]].getFirstPosition(postings[j]));
+					}
+
+					writer.addPosting(document, count, first, pack(mode, first));
+				} else {
+					// Joins the file's postings in the order of their first
+					// positions, so the chunks of a file that was split across
+					// parts are appended instead of inserted one at a time.
+					long[] byFirst = new long[end - start];
+					for (int k = start; k < end; k++) {
+						int j = (int) order[k];
+						byFirst[k - start] = ((long) parts[owners[j]].getFirstPosition(postings[j]) << 32) | j;
+					}
+					Arrays.sort(byFirst);
+
+					PositionList list = new PositionList();
+
+					for (long key : byFirst) {
+						int j = (int) key;
+						PositionList next = new PositionList();
+						PrimitiveIterator.OfInt iterator = parts[owners[j]].getPositions(postings[j]);
+
+						while (iterator.hasNext()) {
+							next.add(iterator.nextInt());
+						}
+
+						list.addAll(next);
+					}
+
+					writer.addPosting(document, list.size(), list.first(), list.encoded());
+				}
+
+				start = end;
+			}
+		}
+	}
+
+	/**
+	 * Returns the packed positions that are kept for a posting with the given
+	 * first position, when not every position is kept.
+	 */
+	static ByteBuffer pack(PositionMode mode, int first) {
+		PositionList list = new PositionList();
+
+		if (mode == PositionMode.FIRST) {
+			list.add(first);
+		}
+
+		return list.encoded();
+	}
+
+	/**
+	 * Writes the snapshot onto a file in the binary format that can be opened
+	 * again by {@link IndexSegment#open(Path)}.
+	 *
+	 * @param output
+	 *            the file that the binary index will be written to.
+	 * @throws IOException
+	 */
+	@Override
+	public void toBinary(Path output) throws IOException {
+		if (removed != null) {
+			compact().toBinary(output);
+			return;
+		}
+
+		IndexSegment.write(output, terms, postingStarts, documents, counts, firsts, positionStarts, positions, paths,
+				mode);
+	}
+
+	/**
+	 * Passes the snapshot and a file for the JSONWriter class to use in order
+	 * to print the index's data onto a file in JSON format.
+	 *
+	 * @param output
+	 *            the file that the JSONWriter will print index's data onto.
+	 * @throws IOException
+	 */
+	@Override
+	public void toJSON(Path output) throws IOException {
+		if (removed != null) {
+			compact().toJSON(output);
+			return;
+		}
+
+		JSONWriter.writeNestedObject(output, this);
+	}
+
+	/**
+	 * The prefix tree and Bloom filter over the words of a snapshot. Each one
+	 * is built the first time it is needed, so a snapshot that is only merged,
+	 * written out, or replaced before it is searched never builds them, and
+	 * one that only ever gets exact searches never builds the prefix tree.
+	 */
+	private static class Lookup {
+
+		private final String[] terms;
+
+		private volatile TermDictionary dictionary;
+
+		private volatile BloomFilter filter;
+
+		public Lookup(String[] terms) {
+			this.terms = terms;
+			this.dictionary = null;
+			this.filter = null;
+		}
+
+		/**
+		 * @return the prefix tree over the words, building it if needed.
+		 */
+		public TermDictionary getDictionary() {
+			TermDictionary result = dictionary;
+
+			if (result == null) {
+				synchronized (this) {
+					result = dictionary;
+
+					if (result == null) {
+						result = new TermDictionary(terms);
+						dictionary = result;
+					}
+				}
+			}
+
+			return result;
+		}
+
+		/**
+		 * @return the Bloom filter over the words, building it if needed.
+		 */
+		public BloomFilter getFilter() {
+			BloomFilter result = filter;
+
+			if (result == null) {
+				synchronized (this) {
+					result = filter;
+
+					if (result == null) {
+						result = new BloomFilter(terms);
+						filter = result;
+					}
+				}
+			}
+
+			return result;
+		}
+	}
+
+	/**
+	 * Packs words and their postings one after the other into growing arrays,
+	 * for building a snapshot in memory whose size is not known up front. Only
+	 * the arrays that the position mode keeps are filled.
+	 */
+	private static class Appender implements IndexWriterInterface {
+
+		private final PositionMode mode;
+		private final ArrayList<String> terms;
+
+		private int[] postingStarts;
+		private int[] documents;
+		private int[] counts;
+		private int[] firsts;
+		private int[] positionStarts;
+		private byte[] positions;
+
+		private int postingCount;
+		private int byteCount;
+
+		public Appender(PositionMode mode) {
+			this.mode = mode;
+			terms = new ArrayList<>();
+			postingStarts = new int[16];
+			documents = new int[16];
+			counts = new int[16];
+			firsts = new int[mode == PositionMode.NONE ? 0 : 16];
+			positionStarts = new int[mode == PositionMode.ALL ? 16 : 0];
+			positions = new byte[mode == PositionMode.ALL ? 64 : 0];
+			postingCount = 0;
+			byteCount = 0;
+		}
+
+		@Override
+		public void addTerm(String term) {
+			if (terms.size() + 1 >= postingStarts.length) {
+				postingStarts = Arrays.copyOf(postingStarts, postingStarts.length * 2);
+			}
+
+			postingStarts[terms.size()] = postingCount;
+			terms.add(term);
+		}
+
+		@Override
+		public void addPosting(int document, int count, int first, ByteBuffer packed) {
+			if (postingCount + 1 >= documents.length) {
+				int capacity = documents.length * 2;
+				documents = Arrays.copyOf(documents, capacity);
+				counts = Arrays.copyOf(counts, capacity);
+
+				if (mode != PositionMode.NONE) {
+					firsts = Arrays.copyOf(firsts, capacity);
+				}
+
+				if (mode == PositionMode.ALL) {
+					positionStarts = Arrays.copyOf(positionStarts, capacity);
+				}
+			}
+
+			documents[postingCount] = document;
+			counts[postingCount] = count;
+
+			if (mode != PositionMode.NONE) {
+				firsts[postingCount] = first;
+			}
+
+			if (mode == PositionMode.ALL) {
+				int length = packed.remaining();
+				if (byteCount + length > positions.length) {
+					positions = Arrays.copyOf(positions, Math.max(byteCount + length, positions.length * 2));
+				}
+
+				positionStarts[postingCount] = byteCount;
+				packed.get(positions, byteCount, length);
+				byteCount += length;
+			}
+
+			postingCount++;
+		}
+
+		/**
+		 * Creates the snapshot from the words and postings added so far.
+		 */
+		public FrozenIndex toFrozenIndex(String[] paths) {
+			postingStarts[terms.size()] = postingCount;
+
+			int firstCount = mode == PositionMode.NONE ? 0 : postingCount;
+			int startCount = mode == PositionMode.ALL ? postingCount + 1 : 0;
+
+			if (mode == PositionMode.ALL) {
+				positionStarts[postingCount] = byteCount;
+			}
+
+			return new FrozenIndex(terms.toArray(new String[terms.size()]),
+					IntBuffer.wrap(Arrays.copyOf(postingStarts, terms.size() + 1)),
+					IntBuffer.wrap(Arrays.copyOf(documents, postingCount)),
+					IntBuffer.wrap(Arrays.copyOf(counts, postingCount)),
+					IntBuffer.wrap(Arrays.copyOf(firsts, firstCount)),
+					IntBuffer.wrap(Arrays.copyOf(positionStarts, startCount)),
+					ByteBuffer.wrap(Arrays.copyOf(positions, byteCount)), paths, mode);
+		}
+	}
+}
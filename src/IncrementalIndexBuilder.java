@@ -0,0 +1,199 @@
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Rebuilds a saved binary index from a directory, only parsing the text files
+ * that have changed since it was saved. The {@link IndexManifest} saved next
+ * to the index tells which files are unchanged, and their postings are reused
+ * from the saved index. Changed and new files are parsed into the given index,
+ * on the work queue if there is one, and files that are no longer there are
+ * dropped. The time a rebuild takes grows with the number of changed files
+ * instead of with the size of the directory.
+ *
+ * If there is no saved index or manifest, or either cannot be read, every file
+ * is parsed.
+ */
+public class IncrementalIndexBuilder implements InvertedIndexBuilderInterface {
+
+	private static final Logger logger = LogManager.getLogger();
+
+	/** The index that changed files are parsed into. */
+	private final MutableIndexInterface index;
+
+	/** The work queue to parse files on, or null to parse them in order. */
+	private final WorkQueue minions;
+
+	/** The saved binary index. */
+	private final Path binary;
+
+	/** The manifest of the files that the new index is built from. */
+	private final IndexManifest manifest;
+
+	/** The finished index, once a directory has been traversed. */
+	private FrozenIndex result;
+
+	/**
+	 * The constructor.
+	 *
+	 * @param index
+	 *            the index to parse changed files into, which must be
+	 *            thread-safe if a work queue is given.
+	 * @param minions
+	 *            the work queue to parse files on, or null to parse them on
+	 *            the calling thread.
+	 * @param binary
+	 *            the saved binary index, next to which its manifest is saved.
+	 */
+	public IncrementalIndexBuilder(MutableIndexInterface index, WorkQueue minions, Path binary) {
+		this.index = index;
+		this.minions = minions;
+		this.binary = binary;
+		this.manifest = new IndexManifest();
+		this.result = null;
+	}
+
+	/**
+	 * Traverses a given directory, parsing the text files that have changed
+	 * since the saved index was built, and combines them with the postings of
+	 * the unchanged files from the saved index.
+	 *
+	 * @param path
+	 *            the directory to start traversing from
+	 * @throws IOException
+	 */
+	@Override
+	public void traverse(Path path) throws IOException {
+		FrozenIndex saved = null;
+		IndexManifest recorded = new IndexManifest();
+
+		if (Files.exists(binary) && Files.exists(IndexManifest.of(binary))) {
+			try {
+				recorded = IndexManifest.read(IndexManifest.of(binary));
+				saved = IndexSegment.open(binary);
+			} catch (IOException e) {
+				logger.warn("Unable to reuse {}, parsing every file.", binary);
+				logger.catching(Level.DEBUG, e);
+				recorded = new IndexManifest();
+			}
+		}
+
+		Set<String> reused = ConcurrentHashMap.newKeySet();
+		traverseDirectory(path, saved, recorded, reused);
+
+		if (minions != null) {
+			minions.finish();
+		}
+
+		logger.info("Reused {} files and parsed {} files.", reused.size(), manifest.size() - reused.size());
+
+		// Drops the files of the saved index that changed or are gone.
+		if (saved != null) {
+			ArrayList<String> dropped = new ArrayList<>();
+
+			for (int document = 0; document < saved.getDocumentCount(); document++) {
+				if (!reused.contains(saved.getPath(document))) {
+					dropped.add(saved.getPath(document));
+				}
+			}
+
+			result = FrozenIndex.merge(saved.withoutDocuments(dropped), index.freeze());
+		} else {
+			result = index.freeze();
+		}
+	}
+
+	/**
+	 * @return the finished index, or null if no directory has been traversed
+	 *         yet.
+	 */
+	public FrozenIndex getIndex() {
+		return result;
+	}
+
+	/**
+	 * @return the manifest of the files that the finished index was built
+	 *         from, to be saved next to it once it is written.
+	 * @see IndexManifest#of(Path)
+	 */
+	public IndexManifest getManifest() {
+		return manifest;
+	}
+
+	/**
+	 * Reuses or parses every text file within the given directory and its
+	 * subdirectories.
+	 */
+	private void traverseDirectory(Path path, FrozenIndex saved, IndexManifest recorded, Set<String> reused)
+			throws IOException {
+		try (DirectoryStream<Path> listing = Files.newDirectoryStream(path)) {
+			for (Path file : listing) {
+				if (Files.isDirectory(file)) {
+					traverseDirectory(file, saved, recorded, reused);
+				} else if (InvertedIndexBuilderInterface.isTextFile(file)) {
+					Minion minion = new Minion(file, saved, recorded, reused);
+
+					if (minions != null) {
+						minions.execute(minion);
+					} else {
+						minion.run();
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Checks whether a file has changed, and parses it into the index if it
+	 * has. Either way, records it in the new manifest.
+	 */
+	private class Minion implements Runnable {
+
+		private final Path file;
+		private final FrozenIndex saved;
+		private final IndexManifest recorded;
+		private final Set<String> reused;
+
+		public Minion(Path file, FrozenIndex saved, IndexManifest recorded, Set<String> reused) {
+			this.file = file;
+			this.saved = saved;
+			this.recorded = recorded;
+			this.reused = reused;
+		}
+
+		@Override
+		public void run() {
+			String location = file.normalize().toString();
+
+			try {
+				if (saved != null && saved.containsDocument(location) && recorded.isUnchanged(file, location)) {
+					manifest.copy(recorded, file, location);
+					reused.add(location);
+					return;
+				}
+
+				logger.debug("Minion parsing {}", file);
+				manifest.add(file, location);
+
+				if (minions != null) {
+					InvertedIndex local = new InvertedIndex(index.getTermTable());
+					InvertedIndexBuilderInterface.parseFile(file, local);
+					index.addAll(local);
+				} else {
+					InvertedIndexBuilderInterface.parseFile(file, index);
+				}
+			} catch (IOException e) {
+				logger.warn("Unable to parse {}", file);
+				logger.catching(Level.DEBUG, e);
+			}
+		}
+	}
+}
@@ -0,0 +1,228 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Records the size, last modified time, and content hash of every file that a
+ * saved index was built from, so that the next build can tell which files
+ * have changed since. A file whose size and modified time are the same is
+ * taken to be unchanged without reading it; otherwise its contents are hashed
+ * and compared, so a file that was only touched is not parsed again.
+ *
+ * The manifest is saved as a text file next to the binary index, with one
+ * line per file: its size, modified time in milliseconds, SHA-256 hash, and
+ * path, separated by tabs.
+ */
+public class IndexManifest {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/** The entry of each file, keyed by its path. */
+	private final TreeMap<String, Entry> entries;
+
+	/**
+	 * The constructor. Instantiates a new, empty manifest.
+	 */
+	public IndexManifest() {
+		entries = new TreeMap<>();
+	}
+
+	/**
+	 * Returns the path of the manifest that is saved next to the given binary
+	 * index.
+	 *
+	 * @param index
+	 *            the binary index file.
+	 * @return the path of its manifest.
+	 */
+	public static Path of(Path index) {
+		return index.resolveSibling(index.getFileName() + ".manifest");
+	}
+
+	/**
+	 * Reads a manifest that was written by {@link #write(Path)}.
+	 *
+	 * @param input
+	 *            the manifest file.
+	 * @return the manifest.
+	 * @throws IOException
+	 *             if the file cannot be read or is not a manifest.
+	 */
+	public static IndexManifest read(Path input) throws IOException {
+		IndexManifest manifest = new IndexManifest();
+
+		try (BufferedReader reader = Files.newBufferedReader(input, UTF8)) {
+			String line = null;
+
+			while ((line = reader.readLine()) != null) {
+				String[] fields = line.split("\t", 4);
+
+				if (fields.length != 4) {
+					throw new IOException(input + " is not a manifest.");
+				}
+
+				try {
+					manifest.entries.put(fields[3],
+							new Entry(Long.parseLong(fields[0]), Long.parseLong(fields[1]), fields[2]));
+				} catch (NumberFormatException e) {
+					throw new IOException(input + " is not a manifest.", e);
+				}
+			}
+		}
+
+		return manifest;
+	}
+
+	/**
+	 * Writes the manifest onto a file.
+	 *
+	 * @param output
+	 *            the file to write the manifest to.
+	 * @throws IOException
+	 */
+	public synchronized void write(Path output) throws IOException {
+		try (BufferedWriter writer = Files.newBufferedWriter(output, UTF8)) {
+			for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+				writer.write(entry.getValue().size + "\t" + entry.getValue().modified + "\t" + entry.getValue().hash
+						+ "\t" + entry.getKey());
+				writer.newLine();
+			}
+		}
+	}
+
+	/**
+	 * Checks whether a file is the same as when it was recorded. Only hashes
+	 * the file if its size or modified time have changed.
+	 *
+	 * @param file
+	 *            the file to check.
+	 * @param location
+	 *            the path the file is recorded under.
+	 * @return whether the file has been recorded and has not changed since.
+	 * @throws IOException
+	 */
+	public boolean isUnchanged(Path file, String location) throws IOException {
+		Entry entry;
+		synchronized (this) {
+			entry = entries.get(location);
+		}
+
+		if (entry == null) {
+			return false;
+		}
+
+		long size = Files.size(file);
+		long modified = Files.getLastModifiedTime(file).toMillis();
+
+		if (size == entry.size && modified == entry.modified) {
+			return true;
+		}
+
+		return size == entry.size && hash(file).equals(entry.hash);
+	}
+
+	/**
+	 * Records the current size, modified time, and hash of a file.
+	 *
+	 * @param file
+	 *            the file to record.
+	 * @param location
+	 *            the path to record the file under.
+	 * @throws IOException
+	 */
+	public void add(Path file, String location) throws IOException {
+		long size = Files.size(file);
+		long modified = Files.getLastModifiedTime(file).toMillis();
+		String hash = hash(file);
+
+		synchronized (this) {
+			entries.put(location, new Entry(size, modified, hash));
+		}
+	}
+
+	/**
+	 * Records a file the same way as it is recorded in another manifest,
+	 * along with its current modified time, which may have changed even if its
+	 * contents have not.
+	 *
+	 * @param other
+	 *            the manifest the file is recorded in.
+	 * @param file
+	 *            the file to record.
+	 * @param location
+	 *            the path the file is recorded under.
+	 * @throws IOException
+	 */
+	public void copy(IndexManifest other, Path file, String location) throws IOException {
+		Entry entry;
+		synchronized (other) {
+			entry = other.entries.get(location);
+		}
+
+		long modified = Files.getLastModifiedTime(file).toMillis();
+
+		synchronized (this) {
+			entries.put(location, new Entry(entry.size, modified, entry.hash));
+		}
+	}
+
+	/**
+	 * @return the number of files in the manifest.
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Returns the SHA-256 hash of the contents of a file, in hexadecimal.
+	 */
+	private static String hash(Path file) throws IOException {
+		MessageDigest digest;
+
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+
+		try (InputStream input = Files.newInputStream(file)) {
+			byte[] buffer = new byte[8192];
+			int length;
+
+			while ((length = input.read(buffer)) > 0) {
+				digest.update(buffer, 0, length);
+			}
+		}
+
+		StringBuilder hex = new StringBuilder();
+		for (byte b : digest.digest()) {
+			hex.append(String.format("%02x", b));
+		}
+
+		return hex.toString();
+	}
+
+	/**
+	 * The size, modified time, and hash of a file.
+	 */
+	private static class Entry {
+
+		private final long size;
+		private final long modified;
+		private final String hash;
+
+		public Entry(long size, long modified, String hash) {
+			this.size = size;
+			this.modified = modified;
+			this.hash = hash;
+		}
+	}
+}
@@ -0,0 +1,123 @@
+import java.util.ArrayList;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Combines the local indexes built by the minions of a builder or crawler in a
+ * binary tree, and adds them to a shared thread-safe index in a few large
+ * batches instead of one file at a time.
+ *
+ * A local index waits at the level of the tree for the number of files it
+ * holds. When a second index of the same level arrives, the minion that
+ * brought it takes the waiting one and merges the two on its own thread, then
+ * moves the result up one level. Only taking and leaving indexes is
+ * synchronized, so minions merge at the same time as one another, and the
+ * shared index is only written to once per batch.
+ */
+public class IndexMerger {
+
+	/** The default number of files to gather before adding them to the index. */
+	public static final int DEFAULT_BATCH = 64;
+
+	private static final Logger logger = LogManager.getLogger();
+
+	/** The shared index that merged batches are added to. */
+	private final MutableIndexInterface index;
+
+	/** The number of files to gather before adding them to the index. */
+	private final int batch;
+
+	/**
+	 * The local index waiting at each level of the tree, holding 2^level
+	 * files, or null if no index is waiting there.
+	 */
+	private final ArrayList<InvertedIndex> levels;
+
+	/**
+	 * The constructor. Gathers {@link #DEFAULT_BATCH} files per batch.
+	 *
+	 * @param index
+	 *            the shared index that merged batches are added to.
+	 */
+	public IndexMerger(MutableIndexInterface index) {
+		this(index, DEFAULT_BATCH);
+	}
+
+	/**
+	 * The constructor.
+	 *
+	 * @param index
+	 *            the shared index that merged batches are added to.
+	 * @param batch
+	 *            the number of files to gather before adding them to the index.
+	 */
+	public IndexMerger(MutableIndexInterface index, int batch) {
+		this.index = index;
+		this.batch = Math.max(1, batch);
+		this.levels = new ArrayList<>();
+	}
+
+	/**
+	 * Adds the local index of a single file. It is merged with any waiting
+	 * indexes of the same size on the calling thread, and added to the shared
+	 * index once it holds a whole batch of files.
+	 *
+	 * @param local
+	 *            the local index of a single file.
+	 */
+	public void add(InvertedIndex local) {
+		int level = 0;
+
+		while ((1 << level) < batch) {
+			InvertedIndex waiting;
+
+			synchronized (levels) {
+				while (levels.size() <= level) {
+					levels.add(null);
+				}
+
+				waiting = levels.set(level, null);
+
+				if (waiting == null) {
+					levels.set(level, local);
+					return;
+				}
+			}
+
+			waiting.addAll(local);
+			local = waiting;
+			level++;
+		}
+
+		logger.debug("add(): Adding a batch of {} files.", 1 << level);
+		index.addAll(local);
+	}
+
+	/**
+	 * Merges all of the indexes that are still waiting, and adds them to the
+	 * shared index. Should be called once the minions are finished.
+	 */
+	public void flush() {
+		InvertedIndex merged = null;
+
+		synchronized (levels) {
+			for (int level = levels.size() - 1; level >= 0; level--) {
+				InvertedIndex waiting = levels.set(level, null);
+
+				if (waiting == null) {
+					continue;
+				} else if (merged == null) {
+					merged = waiting;
+				} else {
+					merged.addAll(waiting);
+				}
+			}
+		}
+
+		if (merged != null) {
+			logger.debug("flush(): Adding the remaining files.");
+			index.addAll(merged);
+		}
+	}
+}
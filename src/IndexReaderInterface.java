@@ -0,0 +1,102 @@
+import java.nio.ByteBuffer;
+import java.util.PrimitiveIterator;
+
+/**
+ * Gives the words and postings of a frozen index by ordinal, so that indexes
+ * can be merged by the same code whether they are snapshots in memory or runs
+ * that are read straight from a mapped file.
+ *
+ * @see FrozenIndex#merge(FrozenIndex...)
+ * @see FrozenIndex#merge(Path, PositionMode, IndexReaderInterface...)
+ */
+public interface IndexReaderInterface {
+
+	/**
+	 * @return the number of words in the index.
+	 */
+	public int size();
+
+	/**
+	 * @param term
+	 *            the ordinal of a word.
+	 * @return the word with the given ordinal.
+	 */
+	public String getTerm(int term);
+
+	/**
+	 * @param term
+	 *            the ordinal of a word.
+	 * @return the first posting of the word.
+	 */
+	public int getPostingStart(int term);
+
+	/**
+	 * @param term
+	 *            the ordinal of a word.
+	 * @return the posting just past the last posting of the word.
+	 */
+	public int getPostingEnd(int term);
+
+	/**
+	 * @param posting
+	 *            the number of a posting.
+	 * @return the ID of the file of the posting.
+	 */
+	public int getDocument(int posting);
+
+	/**
+	 * @param posting
+	 *            the number of a posting.
+	 * @return the number of times the word is found in the file.
+	 */
+	public int getCount(int posting);
+
+	/**
+	 * @param posting
+	 *            the number of a posting.
+	 * @return the first position of the word in the file, or 0 if no
+	 *         positions are kept.
+	 */
+	public int getFirstPosition(int posting);
+
+	/**
+	 * @param posting
+	 *            the number of a posting.
+	 * @return an iterator over the positions of the word in the file that are
+	 *         kept.
+	 */
+	public PrimitiveIterator.OfInt getPositions(int posting);
+
+	/**
+	 * @param posting
+	 *            the number of a posting.
+	 * @return a view of the packed positions of the posting, between its
+	 *         position and limit.
+	 */
+	public ByteBuffer getPackedPositions(int posting);
+
+	/**
+	 * @return how much of the positions are kept.
+	 */
+	public PositionMode getPositionMode();
+
+	/**
+	 * @return the number of files in the index.
+	 */
+	public int getDocumentCount();
+
+	/**
+	 * @param document
+	 *            the ID of a file.
+	 * @return the path of the file.
+	 */
+	public String getPath(int document);
+
+	/**
+	 * @param document
+	 *            the ID of a file.
+	 * @return whether the file has been removed from the index.
+	 */
+	public boolean isRemoved(int document);
+
+}
@@ -0,0 +1,586 @@
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.PrimitiveIterator;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Writes a {@link FrozenIndex} to a compact binary file, and opens such a file
+ * again as a FrozenIndex by memory-mapping it. Only the words and the file
+ * paths are decoded onto the heap when a file is opened; the postings and
+ * positions are read straight from the mapped file as they are searched, so
+ * opening even a large index is nearly instant and the postings do not have
+ * to fit in the heap.
+ *
+ * The file is laid out as follows, with all integers in big-endian order:
+ *
+ * <pre>
+ * header:    magic, version, position mode, word count, posting count,
+ *            position bytes, file count
+ * postings:  int[word count + 1]      offset of the first posting of each word
+ *            int[posting count]       file ID of each posting
+ *            int[posting count]       number of positions of each posting
+ *            int[posting count]       first position of each posting, left
+ *                                     out if no positions are kept
+ *            int[posting count + 1]   offset of the positions of each posting,
+ *                                     left out unless every position is kept
+ *            byte[position bytes]     packed, compressed positions, of which
+ *                                     there are none unless every position
+ *                                     is kept
+ * words:     (int length, UTF-8 bytes) for each word, in sorted order
+ * files:     (int length, UTF-8 bytes) for each file path, by file ID
+ * </pre>
+ *
+ * Since the whole file is mapped at once, it may not be larger than 2 GB. An
+ * index that would be larger fails with an {@link IOException} as soon as it
+ * is known to be too large, while it is being written.
+ *
+ * An index that does not fit in the heap can be written one word at a time
+ * with a {@link Writer}, which spills each section of the layout to its own
+ * temporary file and joins them once the last word has been added, and read
+ * back one word at a time with a {@link Reader}, which decodes only the word
+ * it is on.
+ */
+public class IndexSegment {
+
+	/** Marks the start of a binary index file ("SEIX"). */
+	private static final int MAGIC = 0x53454958;
+
+	/** The version of the file layout. */
+	private static final int VERSION = 4;
+
+	/** The number of bytes in the header. */
+	private static final int HEADER = 7 * Integer.BYTES;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final Logger logger = LogManager.getLogger();
+
+	/**
+	 * Writes the arrays of a frozen index to a binary file.
+	 *
+	 * @param output
+	 *            the file to write to.
+	 * @param terms
+	 *            the words of the index, in sorted order.
+	 * @param postingStarts
+	 *            the offset of the first posting of each word, plus the end.
+	 * @param documents
+	 *            the file ID of each posting.
+	 * @param counts
+	 *            the number of positions of each posting.
+	 * @param firsts
+	 *            the first position of each posting.
+	 * @param positionStarts
+	 *            the offset of the positions of each posting, plus the end.
+	 * @param positions
+	 *            the packed positions of all postings.
+	 * @param paths
+	 *            the path of each file, in sorted order.
+	 * @param mode
+	 *            how much of the positions are kept.
+	 * @throws IOException
+	 *             if the file cannot be written, or would be larger than 2 GB.
+	 * @see FrozenIndex#toBinary(Path)
+	 */
+	public static void write(Path output, String[] terms, IntBuffer postingStarts, IntBuffer documents,
+			IntBuffer counts, IntBuffer firsts, IntBuffer positionStarts, ByteBuffer positions, String[] paths,
+			PositionMode mode) throws IOException {
+		logger.debug("write(): Writing binary index to {}.", output);
+
+		int postingCount = postingStarts.get(terms.length);
+		int firstCount = mode == PositionMode.NONE ? 0 : postingCount;
+		int startCount = mode == PositionMode.ALL ? postingCount + 1 : 0;
+		int byteCount = mode == PositionMode.ALL ? positionStarts.get(postingCount) : 0;
+
+		long size = checkSize(output, HEADER + byteCount
+				+ Integer.BYTES * (terms.length + 1 + 2L * postingCount + firstCount + startCount));
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(output)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(mode.ordinal());
+			out.writeInt(terms.length);
+			out.writeInt(postingCount);
+			out.writeInt(byteCount);
+			out.writeInt(paths.length);
+
+			writeInts(out, postingStarts, terms.length + 1);
+			writeInts(out, documents, postingCount);
+			writeInts(out, counts, postingCount);
+			writeInts(out, firsts, firstCount);
+			writeInts(out, positionStarts, startCount);
+
+			byte[] chunk = new byte[8192];
+			ByteBuffer bytes = positions.duplicate();
+			bytes.position(0);
+			bytes.limit(byteCount);
+
+			while (bytes.hasRemaining()) {
+				int length = Math.min(chunk.length, bytes.remaining());
+				bytes.get(chunk, 0, length);
+				out.write(chunk, 0, length);
+			}
+
+			size = writeStrings(out, terms, size, output);
+			writeStrings(out, paths, size, output);
+		}
+	}
+
+	/**
+	 * Opens a binary index file written by {@link #write} by memory-mapping
+	 * it. The mapping stays valid after this method returns, for as long as
+	 * the returned index is in use.
+	 *
+	 * @param input
+	 *            the binary index file.
+	 * @return the frozen index backed by the mapped file.
+	 * @throws IOException
+	 *             if the file cannot be read or is not a valid binary index.
+	 */
+	public static FrozenIndex open(Path input) throws IOException {
+		logger.debug("open(): Mapping binary index {}.", input);
+
+		Reader reader = new Reader(input);
+
+		return new FrozenIndex(readStrings(reader.words.duplicate(), reader.termCount), reader.postingStarts,
+				reader.documents, reader.counts, reader.firsts, reader.positionStarts, reader.positions, reader.paths,
+				reader.mode);
+	}
+
+	/**
+	 * Writes the first count integers of a buffer.
+	 */
+	private static void writeInts(DataOutputStream out, IntBuffer ints, int count) throws IOException {
+		for (int i = 0; i < count; i++) {
+			out.writeInt(ints.get(i));
+		}
+	}
+
+	/**
+	 * Writes each string as its length in bytes followed by its UTF-8 bytes.
+	 *
+	 * @return the size of the file so far, given its size before the strings.
+	 */
+	private static long writeStrings(DataOutputStream out, String[] strings, long size, Path output)
+			throws IOException {
+		for (String string : strings) {
+			byte[] bytes = string.getBytes(UTF8);
+			size = checkSize(output, size + Integer.BYTES + bytes.length);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+
+		return size;
+	}
+
+	/**
+	 * Checks that a file of the given size can still be mapped.
+	 *
+	 * @return the size.
+	 * @throws IOException
+	 *             if the file would be larger than 2 GB.
+	 */
+	private static long checkSize(Path output, long size) throws IOException {
+		if (size > Integer.MAX_VALUE) {
+			throw new IOException(output + " would be larger than 2 GB, which is the most that can be mapped.");
+		}
+
+		return size;
+	}
+
+	/**
+	 * Reads the given number of strings written by
+	 * {@link #writeStrings(DataOutputStream, String[], long, Path)}.
+	 */
+	private static String[] readStrings(ByteBuffer buffer, int count) {
+		String[] strings = new String[count];
+
+		for (int i = 0; i < count; i++) {
+			byte[] bytes = new byte[buffer.getInt()];
+			buffer.get(bytes);
+			strings[i] = new String(bytes, UTF8);
+		}
+
+		return strings;
+	}
+
+	/**
+	 * Returns a view of the next length bytes of the buffer, and moves the
+	 * buffer past them.
+	 */
+	private static ByteBuffer slice(ByteBuffer buffer, int length) {
+		if (length < 0 || length > buffer.remaining()) {
+			throw new BufferUnderflowException();
+		}
+
+		ByteBuffer slice = buffer.slice();
+		slice.limit(length);
+		buffer.position(buffer.position() + length);
+		return slice;
+	}
+
+	/**
+	 * Streams an index onto a binary file one word at a time, so that the
+	 * index never has to be held in memory. Each section of the file is written
+	 * to its own temporary file next to the output as the words are added, and
+	 * the sections are joined into the output by {@link #finish(String[])}.
+	 * The size of the output is counted as the words are added, so an index
+	 * that is too large to be mapped fails as soon as it gets too large,
+	 * instead of once it has been written.
+	 */
+	public static class Writer implements IndexWriterInterface, Closeable {
+
+		private final Path output;
+		private final PositionMode mode;
+
+		/** The temporary files of the sections, in the order of the layout. */
+		private final Path[] files;
+
+		/** The streams of the sections, in the same order as the files. */
+		private final DataOutputStream[] sections;
+
+		private final DataOutputStream postingStarts;
+		private final DataOutputStream documents;
+		private final DataOutputStream counts;
+		private final DataOutputStream firsts;
+		private final DataOutputStream positionStarts;
+		private final DataOutputStream positions;
+		private final DataOutputStream terms;
+
+		private int termCount;
+		private int postingCount;
+		private int byteCount;
+
+		/** The size of the output file so far, counting the header. */
+		private long size;
+
+		private final byte[] chunk;
+
+		/**
+		 * The constructor. Creates the temporary files of the sections.
+		 *
+		 * @param output
+		 *            the binary file to write.
+		 * @param mode
+		 *            how much of the positions are kept.
+		 * @throws IOException
+		 */
+		public Writer(Path output, PositionMode mode) throws IOException {
+			this.output = output;
+			this.mode = mode;
+			this.files = new Path[7];
+			this.sections = new DataOutputStream[files.length];
+			this.chunk = new byte[8192];
+			this.size = HEADER;
+
+			Path directory = output.toAbsolutePath().getParent();
+
+			try {
+				for (int i = 0; i < files.length; i++) {
+					files[i] = Files.createTempFile(directory, "section", ".tmp");
+					sections[i] = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(files[i])));
+				}
+			} catch (IOException e) {
+				close();
+				throw e;
+			}
+
+			postingStarts = sections[0];
+			documents = sections[1];
+			counts = sections[2];
+			firsts = sections[3];
+			positionStarts = sections[4];
+			positions = sections[5];
+			terms = sections[6];
+		}
+
+		@Override
+		public void addTerm(String term) throws IOException {
+			byte[] bytes = term.getBytes(UTF8);
+			size = checkSize(output, size + 2 * Integer.BYTES + bytes.length);
+
+			postingStarts.writeInt(postingCount);
+			terms.writeInt(bytes.length);
+			terms.write(bytes);
+			termCount++;
+		}
+
+		@Override
+		public void addPosting(int document, int count, int first, ByteBuffer packed) throws IOException {
+			int ints = mode == PositionMode.ALL ? 4 : mode == PositionMode.FIRST ? 3 : 2;
+			int bytes = mode == PositionMode.ALL ? packed.remaining() : 0;
+			size = checkSize(output, size + ints * Integer.BYTES + bytes);
+
+			documents.writeInt(document);
+			counts.writeInt(count);
+
+			if (mode != PositionMode.NONE) {
+				firsts.writeInt(first);
+			}
+
+			if (mode == PositionMode.ALL) {
+				positionStarts.writeInt(byteCount);
+
+				while (packed.hasRemaining()) {
+					int length = Math.min(chunk.length, packed.remaining());
+					packed.get(chunk, 0, length);
+					positions.write(chunk, 0, length);
+					byteCount += length;
+				}
+			}
+
+			postingCount++;
+		}
+
+		/**
+		 * Writes the header and joins the sections into the output file, after
+		 * the last word has been added.
+		 *
+		 * @param paths
+		 *            the path of each file, in sorted order.
+		 * @throws IOException
+		 *             if the file cannot be written, or would be larger than
+		 *             2 GB.
+		 */
+		public void finish(String[] paths) throws IOException {
+			logger.debug("finish(): Writing binary index to {}.", output);
+
+			postingStarts.writeInt(postingCount);
+			size = checkSize(output, size + Integer.BYTES);
+
+			if (mode == PositionMode.ALL) {
+				positionStarts.writeInt(byteCount);
+				size = checkSize(output, size + Integer.BYTES);
+			}
+
+			for (DataOutputStream section : sections) {
+				section.close();
+			}
+
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(output)))) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeInt(mode.ordinal());
+				out.writeInt(termCount);
+				out.writeInt(postingCount);
+				out.writeInt(byteCount);
+				out.writeInt(paths.length);
+
+				for (Path file : files) {
+					Files.copy(file, out);
+				}
+
+				writeStrings(out, paths, size, output);
+			}
+		}
+
+		/**
+		 * Closes and deletes the temporary files of the sections.
+		 *
+		 * @throws IOException
+		 */
+		@Override
+		public void close() throws IOException {
+			for (int i = 0; i < files.length; i++) {
+				if (sections[i] != null) {
+					sections[i].close();
+				}
+
+				if (files[i] != null) {
+					Files.deleteIfExists(files[i]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads a binary index file word by word for a merge, without decoding all
+	 * of its words onto the heap or building the prefix tree and Bloom filter
+	 * that search needs. The words are decoded one at a time from the mapped
+	 * file as they are asked for, and must be asked for in order. Only the file
+	 * paths are read onto the heap.
+	 *
+	 * @see FrozenIndex#merge(Path, PositionMode, IndexReaderInterface...)
+	 */
+	public static class Reader implements IndexReaderInterface {
+
+		private final PositionMode mode;
+		private final int termCount;
+		private final IntBuffer postingStarts;
+		private final IntBuffer documents;
+		private final IntBuffer counts;
+		private final IntBuffer firsts;
+		private final IntBuffer positionStarts;
+		private final ByteBuffer positions;
+		private final String[] paths;
+
+		/** The words section, positioned just past the current word. */
+		private final ByteBuffer words;
+
+		/** The ordinal of the current word, or -1 before the first word. */
+		private int term;
+
+		/** The current word. */
+		private String current;
+
+		/**
+		 * The constructor. Maps the file and reads its file paths. The mapping
+		 * stays valid for as long as the reader is in use.
+		 *
+		 * @param input
+		 *            the binary index file.
+		 * @throws IOException
+		 *             if the file cannot be read or is not a valid binary
+		 *             index.
+		 */
+		public Reader(Path input) throws IOException {
+			try (FileChannel channel = FileChannel.open(input, StandardOpenOption.READ)) {
+				if (channel.size() < HEADER) {
+					throw new IOException(input + " is not a binary index.");
+				}
+
+				if (channel.size() > Integer.MAX_VALUE) {
+					throw new IOException(input + " is larger than 2 GB, which is the most that can be mapped.");
+				}
+
+				MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+				if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+					throw new IOException(input + " is not a binary index.");
+				}
+
+				try {
+					mode = PositionMode.values()[buffer.getInt()];
+					termCount = buffer.getInt();
+					int postingCount = buffer.getInt();
+					int byteCount = buffer.getInt();
+					int documentCount = buffer.getInt();
+					int firstCount = mode == PositionMode.NONE ? 0 : postingCount;
+					int startCount = mode == PositionMode.ALL ? postingCount + 1 : 0;
+
+					postingStarts = slice(buffer, (termCount + 1) * Integer.BYTES).asIntBuffer();
+					documents = slice(buffer, postingCount * Integer.BYTES).asIntBuffer();
+					counts = slice(buffer, postingCount * Integer.BYTES).asIntBuffer();
+					firsts = slice(buffer, firstCount * Integer.BYTES).asIntBuffer();
+					positionStarts = slice(buffer, startCount * Integer.BYTES).asIntBuffer();
+					positions = slice(buffer, byteCount);
+
+					// Skips over the words to get to the paths.
+					words = buffer.slice();
+					for (int i = 0; i < termCount; i++) {
+						slice(buffer, buffer.getInt());
+					}
+
+					paths = readStrings(buffer, documentCount);
+				} catch (BufferUnderflowException | IllegalArgumentException | NegativeArraySizeException
+						| ArrayIndexOutOfBoundsException e) {
+					throw new IOException(input + " is truncated or corrupt.", e);
+				}
+			}
+
+			term = -1;
+			current = null;
+		}
+
+		@Override
+		public int size() {
+			return termCount;
+		}
+
+		/**
+		 * {@inheritDoc} The word must be the current word or the one after it.
+		 *
+		 * @throws IllegalStateException
+		 *             if the words are not asked for in order.
+		 */
+		@Override
+		public String getTerm(int term) {
+			if (term == this.term + 1) {
+				byte[] bytes = new byte[words.getInt()];
+				words.get(bytes);
+				current = new String(bytes, UTF8);
+				this.term = term;
+			} else if (term != this.term) {
+				throw new IllegalStateException("Word " + term + " was asked for after word " + this.term + ".");
+			}
+
+			return current;
+		}
+
+		@Override
+		public int getPostingStart(int term) {
+			return postingStarts.get(term);
+		}
+
+		@Override
+		public int getPostingEnd(int term) {
+			return postingStarts.get(term + 1);
+		}
+
+		@Override
+		public int getDocument(int posting) {
+			return documents.get(posting);
+		}
+
+		@Override
+		public int getCount(int posting) {
+			return counts.get(posting);
+		}
+
+		@Override
+		public int getFirstPosition(int posting) {
+			return mode == PositionMode.NONE ? 0 : firsts.get(posting);
+		}
+
+		@Override
+		public PrimitiveIterator.OfInt getPositions(int posting) {
+			ByteBuffer packed = getPackedPositions(posting);
+			return PositionList.decode(packed, packed.position(), packed.limit());
+		}
+
+		@Override
+		public ByteBuffer getPackedPositions(int posting) {
+			if (mode != PositionMode.ALL) {
+				return FrozenIndex.pack(mode, getFirstPosition(posting));
+			}
+
+			ByteBuffer bytes = positions.duplicate();
+			bytes.limit(positionStarts.get(posting + 1));
+			bytes.position(positionStarts.get(posting));
+			return bytes;
+		}
+
+		@Override
+		public PositionMode getPositionMode() {
+			return mode;
+		}
+
+		@Override
+		public int getDocumentCount() {
+			return paths.length;
+		}
+
+		@Override
+		public String getPath(int document) {
+			return paths[document];
+		}
+
+		@Override
+		public boolean isRemoved(int document) {
+			return false;
+		}
+	}
+}
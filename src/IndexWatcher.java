@@ -0,0 +1,279 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Keeps an index up to date with a directory of text files after it has been
+ * built. Every directory under the root is watched for changes, and only the
+ * text files that are created, modified, or deleted are indexed again, by
+ * replacing or removing them in the index. Files are parsed by the work queue,
+ * and since a {@link MultiInvertedIndex} is searched without locking, the
+ * index can keep being searched while it is updated.
+ *
+ * Only one {@link Minion} works on a file at a time. A file that changes again
+ * while it is being parsed is parsed once more after that, so an older version
+ * of a file never replaces a newer one in the index.
+ */
+public class IndexWatcher implements Runnable, Closeable {
+
+	private static final Logger logger = LogManager.getLogger();
+
+	private final MutableIndexInterface index;
+
+	private final WorkQueue minions;
+
+	private final WatchService service;
+
+	/** The directory of each watch key. */
+	private final ConcurrentHashMap<WatchKey, Path> directories;
+
+	/** The text files under the watched directories, normalized. */
+	private final Set<Path> files;
+
+	/**
+	 * Whether each file that has a minion working on it has changed again
+	 * since the minion started reading it, by normalized path.
+	 */
+	private final ConcurrentHashMap<Path, Boolean> queued;
+
+	/**
+	 * The constructor.
+	 *
+	 * @param index
+	 *            the index to keep up to date.
+	 * @param minions
+	 *            the work queue to parse changed files on.
+	 * @throws IOException
+	 *             if the file system cannot be watched.
+	 */
+	public IndexWatcher(MutableIndexInterface index, WorkQueue minions) throws IOException {
+		this.index = index;
+		this.minions = minions;
+		this.service = FileSystems.getDefault().newWatchService();
+		this.directories = new ConcurrentHashMap<>();
+		this.files = ConcurrentHashMap.newKeySet();
+		this.queued = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * Starts watching a directory and its subdirectories, whose text files
+	 * are being or have been added to the index. Changes are collected from
+	 * now on, but only applied once {@link #run()} is started, so that the
+	 * directory can be watched before it is traversed.
+	 *
+	 * @param path
+	 *            the directory to watch.
+	 */
+	public void watch(Path path) {
+		register(path, false);
+	}
+
+	/**
+	 * Waits for changes to the watched directories and applies them to the
+	 * index, until the watcher is closed or the thread is interrupted.
+	 */
+	@Override
+	public void run() {
+		while (true) {
+			WatchKey key;
+
+			try {
+				key = service.take();
+			} catch (InterruptedException | ClosedWatchServiceException e) {
+				logger.debug("run(): Stopped watching.");
+				return;
+			}
+
+			Path directory = directories.get(key);
+			LinkedHashSet<Path> changed = new LinkedHashSet<>();
+
+			for (WatchEvent<?> event : key.pollEvents()) {
+				if (directory == null) {
+					continue;
+				}
+
+				if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+					logger.warn("Missed changes to {}, indexing it again.", directory);
+					rescan(directory);
+					continue;
+				}
+
+				Path file = directory.resolve((Path) event.context());
+
+				if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+					changed.remove(file);
+					delete(file);
+				} else if (Files.isDirectory(file)) {
+					if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+						register(file, true);
+					}
+				} else if (isText(file)) {
+					changed.add(file);
+				}
+			}
+
+			// A file that is written in several steps is only parsed once.
+			for (Path file : changed) {
+				files.add(file.normalize());
+				parse(file);
+			}
+
+			if (!key.reset()) {
+				directories.remove(key);
+			}
+		}
+	}
+
+	/**
+	 * Stops watching, which ends {@link #run()}.
+	 *
+	 * @throws IOException
+	 */
+	@Override
+	public void close() throws IOException {
+		service.close();
+	}
+
+	/**
+	 * Watches a directory and its subdirectories, and parses their text files
+	 * if asked to. The directory is watched before it is listed, so a file
+	 * created while it is being listed is not missed.
+	 */
+	private void register(Path path, boolean parse) {
+		try {
+			WatchKey key = path.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+					StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+			directories.put(key, path);
+
+			try (DirectoryStream<Path> listing = Files.newDirectoryStream(path)) {
+				for (Path file : listing) {
+					if (Files.isDirectory(file)) {
+						register(file, parse);
+					} else if (isText(file)) {
+						files.add(file.normalize());
+
+						if (parse) {
+							parse(file);
+						}
+					}
+				}
+			}
+		} catch (IOException e) {
+			logger.warn("Unable to watch {}", path);
+			logger.catching(Level.DEBUG, e);
+		}
+	}
+
+	/**
+	 * Parses every text file under a directory again, and removes the files
+	 * that are no longer there, after changes to it may have been missed.
+	 */
+	private void rescan(Path directory) {
+		Path prefix = directory.normalize();
+
+		for (Path file : new ArrayList<>(files)) {
+			if (file.startsWith(prefix) && !Files.exists(file)) {
+				delete(file);
+			}
+		}
+
+		register(directory, true);
+	}
+
+	/**
+	 * Removes a deleted file from the index, or every file under it if it was
+	 * a directory. The files are removed by minions, after any parse of them
+	 * that is already under way.
+	 */
+	private void delete(Path path) {
+		Path deleted = path.normalize();
+
+		for (Path file : new ArrayList<>(files)) {
+			if (file.startsWith(deleted)) {
+				files.remove(file);
+				logger.debug("delete(): Removing {}.", file);
+				parse(file);
+			}
+		}
+	}
+
+	/**
+	 * Hands off a changed file to a minion, unless one is already working on
+	 * it, in which case that minion reads it again once it is done.
+	 */
+	private void parse(Path file) {
+		if (queued.put(file.normalize(), Boolean.TRUE) == null) {
+			minions.execute(new Minion(file.normalize()));
+		}
+	}
+
+	/**
+	 * Checks whether a file is a text file that should be indexed.
+	 */
+	private static boolean isText(Path file) {
+		return InvertedIndexBuilderInterface.isTextFile(file);
+	}
+
+	/**
+	 * Parses a created or modified file, and replaces its old version in the
+	 * index. If the file is gone or can no longer be read, it is removed
+	 * instead. Keeps going until the file has not changed again while it was
+	 * being read.
+	 */
+	private class Minion implements Runnable {
+
+		private final Path file;
+
+		public Minion(Path file) {
+			logger.debug("Minion created for {}", file);
+			this.file = file;
+		}
+
+		@Override
+		public void run() {
+			String location = file.toString();
+
+			try {
+				do {
+					queued.put(file, Boolean.FALSE);
+
+					try {
+						if (Files.exists(file)) {
+							InvertedIndex local = new InvertedIndex(index.getTermTable());
+							InvertedIndexBuilderInterface.parseFile(file, local);
+							index.replaceDocument(location, local);
+						} else {
+							index.removeDocument(location);
+						}
+					} catch (IOException e) {
+						logger.warn("Unable to parse {}", file);
+						logger.catching(Level.DEBUG, e);
+						index.removeDocument(location);
+					}
+				} while (!queued.remove(file, Boolean.FALSE));
+			} catch (RuntimeException e) {
+				// Lets the next change to the file be handed off again.
+				queued.remove(file);
+				throw e;
+			}
+
+			logger.debug("Minion finished {}", file);
+		}
+	}
+}
@@ -0,0 +1,41 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Receives the words and postings of a frozen index one at a time, in sorted
+ * order, so that an index can be merged into memory or streamed onto disk by
+ * the same code.
+ *
+ * @see FrozenIndex#merge(FrozenIndex...)
+ * @see FrozenIndex#merge(Path, PositionMode, IndexReaderInterface...)
+ */
+public interface IndexWriterInterface {
+
+	/**
+	 * Starts a new word, which must sort after the words before it. Its
+	 * postings must be added next, in file order.
+	 *
+	 * @param term
+	 *            the word.
+	 * @throws IOException
+	 */
+	public void addTerm(String term) throws IOException;
+
+	/**
+	 * Adds a posting of the current word.
+	 *
+	 * @param document
+	 *            the ID of the file, which must be greater than the ID of the
+	 *            word's last posting.
+	 * @param count
+	 *            the number of times the word is found in the file.
+	 * @param first
+	 *            the first position of the word in the file.
+	 * @param positions
+	 *            the packed positions that are kept for the posting, in its
+	 *            remaining bytes.
+	 * @throws IOException
+	 */
+	public void addPosting(int document, int count, int first, ByteBuffer positions) throws IOException;
+
+}
@@ -1,29 +1,84 @@
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.SortedMap;
 import java.util.TreeMap;
-import java.util.TreeSet;
 
 /**
  * Creates and stores an inverted index in the form of TreeMap<String,
- * TreeMap<String, TreeSet<Integer>>>. The inverted index documents words and
+ * TreeMap<Integer, PositionList>>. The inverted index documents words and
  * the files that they are found in, as well as the position that specific word
- * can be found in said file.
+ * can be found in said file. Files are stored by the integer ID assigned to
+ * them by a {@link DocumentTable}, and positions are stored in a compressed
+ * {@link PositionList}.
  */
-public class InvertedIndex {
+public class InvertedIndex implements MutableIndexInterface {
 
 	/**
 	 * The inverted index data structure.
 	 */
-	private final TreeMap<String, TreeMap<String, TreeSet<Integer>>> index;
+	private final TreeMap<String, TreeMap<Integer, PositionList>> index;
 
 	/**
-	 * The constructor. Instantiates a new index.
+	 * The table of files that have been added to the index.
+	 */
+	private final DocumentTable documents;
+
+	/**
+	 * The table that the words of the index are interned in.
+	 */
+	private final TermTable terms;
+
+	/**
+	 * The constructor. Instantiates a new index with a term table of its own.
 	 */
 	public InvertedIndex() {
-		index = new TreeMap<>();
+		this(new TermTable());
+	}
+
+	/**
+	 * The constructor. Instantiates a new index whose words are interned in
+	 * the given term table, which may be shared with other indexes so that
+	 * they also share their words.
+	 * 
+	 * @param terms
+	 *            the table to intern the words of the index in.
+	 */
+	public InvertedIndex(TermTable terms) {
+		index = new TreeMap<>(TermTable.ORDER);
+		documents = new DocumentTable();
+		this.terms = terms;
+	}
+
+	/**
+	 * @return the table that the words of the index are interned in.
+	 */
+	public TermTable getTermTable() {
+		return terms;
+	}
+
+	/**
+	 * Returns the files and positions of each word, for another kind of index
+	 * that this one is added to. The map is not copied, and the other index
+	 * may take over the position lists it holds, so this index should not be
+	 * changed afterwards.
+	 * 
+	 * @return the files and positions of each word, sorted by word.
+	 */
+	protected SortedMap<String, TreeMap<Integer, PositionList>> getIndex() {
+		return index;
+	}
+
+	/**
+	 * @return the table of the files of the index, which should not be
+	 *         changed by anything but this index.
+	 */
+	protected DocumentTable getDocumentTable() {
+		return documents;
 	}
 
 	/**
@@ -40,129 +95,441 @@ public class InvertedIndex {
 	 *            the position in the file where the word is found
 	 */
 	public void add(String word, String file, Integer position) {
+		word = terms.intern(word);
+		int id = documents.add(file);
+
 		if (!index.containsKey(word)) {
 			index.put(word, new TreeMap<>());
 		}
 
-		if (index.get(word).get(file) == null) {
-			index.get(word).put(file, new TreeSet<>());
+		if (index.get(word).get(id) == null) {
+			index.get(word).put(id, new PositionList());
 		}
 
-		index.get(word).get(file).add(position);
+		index.get(word).get(id).add(position);
 	}
 
 	/**
-	 * Passes the index and a file for the JSONWriter class to use in order to
-	 * print the index's data onto a file in JSON format.
+	 * Adds the words of a document to the index, giving them consecutive
+	 * positions starting from the given position. The file is looked up once,
+	 * and the words are grouped by word first, so that each distinct word is
+	 * only looked up in the index once instead of once per position.
 	 * 
-	 * @param output
-	 *            the file that the JSONWriter will print index's data onto.
-	 * @throws IOExceptions
+	 * @param file
+	 *            the file that the words are found in
+	 * @param words
+	 *            the words of the file, in the order they are found
+	 * @param count
+	 *            the number of words at the start of the array to add
+	 * @param position
+	 *            the position in the file of the first word
+	 * @return the position after the last word that was added
 	 */
-	public void toJSON(Path output) throws IOException {
-		JSONWriter.writeNestedObject(output, index);
+	public int addDocument(String file, String[] words, int count, int position) {
+		if (count == 0) {
+			return position;
+		}
+
+		int id = documents.add(file);
+
+		for (Map.Entry<String, PositionList> entry : group(words, count, position).entrySet()) {
+			String word = terms.intern(entry.getKey());
+			TreeMap<Integer, PositionList> postings = index.get(word);
+
+			if (postings == null) {
+				postings = new TreeMap<>();
+				index.put(word, postings);
+			}
+
+			PositionList positions = postings.get(id);
+
+			if (positions == null) {
+				entry.getValue().trimToSize();
+				postings.put(id, entry.getValue());
+			} else {
+				positions.addAll(entry.getValue());
+			}
+		}
+
+		return position + count;
 	}
 
 	/**
-	 * Searches index for the exact word or words in the query, and puts that
-	 * word's location in terms of file, count, and size into a SearchResult
-	 * object, which is placed into an ArrayList and then returned.
+	 * Groups the positions of the words of a document by word, for
+	 * {@link #addDocument(String, String[], int, int)}. Since the positions
+	 * only increase, each one is appended to its list without re-encoding.
 	 * 
-	 * @param query
-	 *            an array of search queries or a query.
-	 * @return a list of SearchResult objects.
+	 * @param words
+	 *            the words of the document, in the order they are found
+	 * @param count
+	 *            the number of words at the start of the array to group
+	 * @param position
+	 *            the position of the first word
+	 * @return the positions of each distinct word
 	 */
-	public ArrayList<SearchResult> exactSearch(String[] query) {
-		ArrayList<SearchResult> list = new ArrayList<>();
+	protected static HashMap<String, PositionList> group(String[] words, int count, int position) {
+		HashMap<String, PositionList> grouped = new HashMap<>();
 
-		HashMap<String, SearchResult> map = new HashMap<>();
+		for (int i = 0; i < count; i++) {
+			PositionList positions = grouped.get(words[i]);
 
-		// Goes through each word in this query.
-		for (String word : query) {
-			if (index.containsKey(word)) {
-				createSearchResultList(list, map, word);
+			if (positions == null) {
+				positions = new PositionList();
+				grouped.put(words[i], positions);
+			}
+
+			positions.add(position + i);
+		}
+
+		return grouped;
+	}
+
+	/**
+	 * Removes every word of a file from the index. The file keeps its ID, so
+	 * if it is added again later, its words are added under the same ID.
+	 * 
+	 * @param path
+	 *            the file or URL of the document to remove.
+	 * @return whether the file was in the index.
+	 */
+	public boolean removeDocument(String path) {
+		int id = documents.getId(path);
+
+		if (id < 0) {
+			return false;
+		}
+
+		boolean found = false;
+		Iterator<TreeMap<Integer, PositionList>> iterator = index.values().iterator();
+
+		while (iterator.hasNext()) {
+			TreeMap<Integer, PositionList> postings = iterator.next();
+
+			if (postings.remove(id) != null) {
+				found = true;
+
+				if (postings.isEmpty()) {
+					iterator.remove();
+				}
+			}
+		}
+
+		return found;
+	}
+
+	/**
+	 * Replaces the words of a file with the contents of another index, which
+	 * usually holds just the new version of the file.
+	 * 
+	 * @param path
+	 *            the file or URL of the document to replace.
+	 * @param document
+	 *            the index of the new version of the document.
+	 */
+	public void replaceDocument(String path, InvertedIndex document) {
+		removeDocument(path);
+		addAll(document);
+	}
+
+	/**
+	 * Creates an immutable, read-optimized snapshot of the index, to be
+	 * searched once building is done. Files are renumbered in path order, so
+	 * the snapshot lists the files of each word sorted by path. Later changes
+	 * to this index are not reflected in the snapshot.
+	 * 
+	 * @return the frozen snapshot of the index.
+	 */
+	public FrozenIndex freeze() {
+		return freeze(index, documents);
+	}
+
+	/**
+	 * Creates an immutable snapshot of the given words and files, for
+	 * {@link #freeze()} and for other indexes that keep their words in a
+	 * different kind of sorted map. Files that no word is found in, such as
+	 * files that have been removed, are left out, and so are words that are
+	 * not found in any file.
+	 * 
+	 * @param index
+	 *            the files and positions of each word, sorted by word.
+	 * @param documents
+	 *            the table of the files of the index.
+	 * @return the frozen snapshot of the index.
+	 */
+	protected static FrozenIndex freeze(SortedMap<String, TreeMap<Integer, PositionList>> index,
+			DocumentTable documents) {
+		boolean[] found = new boolean[documents.size()];
+		int termCount = 0;
+		int postingCount = 0;
+		int byteCount = 0;
+		for (TreeMap<Integer, PositionList> postings : index.values()) {
+			termCount += postings.isEmpty() ? 0 : 1;
+			postingCount += postings.size();
+
+			for (Map.Entry<Integer, PositionList> posting : postings.entrySet()) {
+				found[posting.getKey()] = true;
+				byteCount += posting.getValue().encodedLength();
+			}
+		}
+
+		// Renumbers the files so that their IDs follow path order.
+		TreeMap<String, Integer> sorted = new TreeMap<>();
+		for (int id = 0; id < documents.size(); id++) {
+			if (found[id]) {
+				sorted.put(documents.getPath(id), id);
+			}
+		}
+
+		String[] paths = new String[sorted.size()];
+		int[] ids = new int[documents.size()];
+		int next = 0;
+		for (Map.Entry<String, Integer> entry : sorted.entrySet()) {
+			paths[next] = entry.getKey();
+			ids[entry.getValue()] = next;
+			next++;
+		}
+
+		String[] terms = new String[termCount];
+		int[] postingStarts = new int[terms.length + 1];
+		int[] files = new int[postingCount];
+		int[] counts = new int[postingCount];
+		int[] firsts = new int[postingCount];
+		int[] positionStarts = new int[postingCount + 1];
+		byte[] positions = new byte[byteCount];
+
+		int term = 0;
+		int posting = 0;
+		int offset = 0;
+		for (Map.Entry<String, TreeMap<Integer, PositionList>> entry : index.entrySet()) {
+			if (entry.getValue().isEmpty()) {
+				continue;
+			}
+
+			terms[term] = entry.getKey();
+			postingStarts[term] = posting;
+
+			// Sorts the word's postings by new ID, keeping the old ID in the
+			// lower half of each key to look up the positions with.
+			long[] order = new long[entry.getValue().size()];
+			int i = 0;
+			for (Integer id : entry.getValue().keySet()) {
+				order[i++] = ((long) ids[id] << 32) | id;
+			}
+			Arrays.sort(order);
+
+			for (long key : order) {
+				PositionList list = entry.getValue().get((int) key);
+				files[posting] = (int) (key >>> 32);
+				counts[posting] = list.size();
+				firsts[posting] = list.first();
+				positionStarts[posting] = offset;
+				offset = list.copyTo(positions, offset);
+				posting++;
 			}
+
+			term++;
 		}
 
-		Collections.sort(list);
-		return list;
+		postingStarts[term] = posting;
+		positionStarts[posting] = offset;
+
+		return new FrozenIndex(terms, postingStarts, files, counts, firsts, positionStarts, positions, paths);
+	}
+
+	/**
+	 * Passes the index and a file for the JSONWriter class to use in order to
+	 * print the index's data onto a file in JSON format.
+	 * 
+	 * @param output
+	 *            the file that the JSONWriter will print index's data onto.
+	 * @throws IOExceptions
+	 */
+	public void toJSON(Path output) throws IOException {
+		JSONWriter.writeNestedObject(output, index, documents);
 	}
 
 	/**
-	 * Searches index for a word or words that start with the prefix or prefixes
-	 * given in the query, and puts those word's or words' location in terms of
-	 * file, count, and size into a SearchResult object, which is placed into an
-	 * ArrayList and then returned.
+	 * Searches index for the exact word or words in the query, or for the
+	 * words that start with the prefix or prefixes in the query, and puts
+	 * those words' location in terms of file, count, and size into a
+	 * SearchResult object. Only the best k SearchResult objects are returned.
 	 * 
 	 * @param query
 	 *            an array of search queries or a query.
-	 * @return a list of SearchResult objects.
+	 * @param exact
+	 *            whether to search for exact words instead of prefixes.
+	 * @param limit
+	 *            the most words to expand each prefix into.
+	 * @param k
+	 *            the most results to return.
+	 * @return a sorted list of at most k SearchResult objects.
 	 */
-	public ArrayList<SearchResult> partialSearch(String[] query) {
+	public SearchResultList search(String[] query, boolean exact, int limit, int k) {
 		ArrayList<SearchResult> list = new ArrayList<>();
 
-		HashMap<String, SearchResult> map = new HashMap<>();
+		HashMap<Integer, SearchResult> map = new HashMap<>();
 
 		// Goes through each word in this query.
-		for (String prefix : query) {
-
-			// Goes through each key in the tailMap of the index.
-			for (String word : index.tailMap(prefix).keySet()) {
+		for (String word : query) {
+			if (exact) {
+				TreeMap<Integer, PositionList> postings = index.get(word);
 
-				if (!word.startsWith(prefix)) {
-					break;
+				if (postings != null) {
+					createSearchResultList(list, map, postings);
 				}
+			} else {
+				int expanded = 0;
+
+				// Goes through each entry in the tailMap of the index.
+				for (Map.Entry<String, TreeMap<Integer, PositionList>> entry : index.tailMap(word).entrySet()) {
 
-				createSearchResultList(list, map, word);
+					if (!entry.getKey().startsWith(word) || expanded >= limit) {
+						break;
+					}
+
+					createSearchResultList(list, map, entry.getValue());
+					expanded++;
+				}
 			}
 		}
 
-		Collections.sort(list);
-		return list;
+		return SearchResult.top(list, k);
 	}
 
-	private void createSearchResultList(ArrayList<SearchResult> list, HashMap<String, SearchResult> map, String word) {
-		for (String file : index.get(word).keySet()) {
-			int count = index.get(word).get(file).size();
-			int firstPosition = index.get(word).get(file).first();
+	/**
+	 * Adds a SearchResult to the list for each file the word is found in, or
+	 * updates the existing SearchResult if the file was already found by an
+	 * earlier word of the query. The file's path is only looked up when a new
+	 * SearchResult is created, and the count and first position are read from
+	 * the position list without decoding it.
+	 */
+	private void createSearchResultList(ArrayList<SearchResult> list, HashMap<Integer, SearchResult> map,
+			TreeMap<Integer, PositionList> postings) {
+		for (Map.Entry<Integer, PositionList> entry : postings.entrySet()) {
+			int count = entry.getValue().size();
+			int firstPosition = entry.getValue().first();
 
 			// If the file exists, updates the SearchResult, else adds a
 			// new SearchResult to the map and list.
-			if (map.containsKey(file)) {
-				map.get(file).addCount(count);
-				map.get(file).setFirstPosition(firstPosition);
+			SearchResult result = map.get(entry.getKey());
+
+			if (result != null) {
+				result.addCount(count);
+				result.setFirstPosition(firstPosition);
 			} else {
-				SearchResult result = new SearchResult(count, firstPosition, file);
-				map.put(file, result);
+				result = new SearchResult(count, firstPosition, documents.getPath(entry.getKey()));
+				map.put(entry.getKey(), result);
 				list.add(result);
 			}
 		}
 	}
 
 	/**
-	 * Adds the contents of another index to this one.
+	 * Adds the contents of another index to this one. The other index's file
+	 * IDs are translated into this index's IDs before they are merged in. If
+	 * both indexes share a term table, the other index's words are already
+	 * interned and are used as they are.
 	 * 
 	 * @param other
 	 *            the other index.
 	 */
 	public void addAll(InvertedIndex other) {
-		
-		for (String word : other.index.keySet()) {
+		int[] ids = documents.addAll(other.documents);
+
+		for (Map.Entry<String, TreeMap<Integer, PositionList>> posting : other.index.entrySet()) {
+			String word = other.terms == this.terms ? posting.getKey() : terms.intern(posting.getKey());
+
 			if (!this.index.containsKey(word)) {
-				this.index.put(word, other.index.get(word));
+				this.index.put(word, new TreeMap<>());
 			}
 
-			else {
-				for (String file : other.index.get(word).keySet()) {
-					if (!this.index.get(word).containsKey(file)) {
-						this.index.get(word).put(file, other.index.get(word).get(file));
-					}
+			for (Map.Entry<Integer, PositionList> entry : posting.getValue().entrySet()) {
+				int id = ids[entry.getKey()];
 
-					else {
-						this.index.get(word).get(file).addAll(other.index.get(word).get(file));
-					}
+				if (!this.index.get(word).containsKey(id)) {
+					entry.getValue().trimToSize();
+					this.index.get(word).put(id, entry.getValue());
 				}
+
+				else {
+					this.index.get(word).get(id).addAll(entry.getValue());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Adds the given offset to every position in the index, such as to move
+	 * the words of a chunk of a file to where the chunk starts in the whole
+	 * file. Only the first position of each list is encoded again.
+	 * 
+	 * @param offset
+	 *            the offset to add to each position.
+	 * @see PositionList#shift(int)
+	 */
+	public void shift(int offset) {
+		for (TreeMap<Integer, PositionList> postings : index.values()) {
+			for (PositionList positions : postings.values()) {
+				positions.shift(offset);
 			}
 		}
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Splits the index into the given number of parts by file, so that each
+	 * file and all of its words end up in the part chosen for its path by
+	 * {@link #partitionOf(String, int)}. The parts share their position lists
+	 * with this index, so this index should not be changed afterwards.
+	 * 
+	 * @param parts
+	 *            the number of parts.
+	 * @return the index of each part, or null for parts without any files.
+	 */
+	public InvertedIndex[] partition(int parts) {
+		InvertedIndex[] partitions = new InvertedIndex[parts];
+
+		// A local index of a single file goes to its part as a whole.
+		if (documents.size() == 1) {
+			partitions[partitionOf(documents.getPath(0), parts)] = this;
+			return partitions;
+		}
+
+		int[] owners = new int[documents.size()];
+		for (int id = 0; id < owners.length; id++) {
+			owners[id] = partitionOf(documents.getPath(id), parts);
+
+			if (partitions[owners[id]] == null) {
+				partitions[owners[id]] = new InvertedIndex(terms);
+			}
+		}
+
+		for (Map.Entry<String, TreeMap<Integer, PositionList>> entry : index.entrySet()) {
+			for (Map.Entry<Integer, PositionList> posting : entry.getValue().entrySet()) {
+				InvertedIndex partition = partitions[owners[posting.getKey()]];
+				int id = partition.documents.add(documents.getPath(posting.getKey()));
+
+				if (!partition.index.containsKey(entry.getKey())) {
+					partition.index.put(entry.getKey(), new TreeMap<>());
+				}
+
+				partition.index.get(entry.getKey()).put(id, posting.getValue());
+			}
+		}
+
+		return partitions;
+	}
+
+	/**
+	 * Chooses the part that a file belongs to when an index is split into the
+	 * given number of parts.
+	 * 
+	 * @param path
+	 *            the file or URL of the document.
+	 * @param parts
+	 *            the number of parts.
+	 * @return the part of the file, from 0 up to but not including parts.
+	 */
+	public static int partitionOf(String path, int parts) {
+		return Math.floorMod(path.hashCode(), parts);
+	}
+}
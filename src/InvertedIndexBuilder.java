@@ -10,16 +10,16 @@ import java.nio.file.Path;
  */
 public class InvertedIndexBuilder implements InvertedIndexBuilderInterface {
 
-	private final InvertedIndex index;
+	private final MutableIndexInterface index;
 
-	public InvertedIndexBuilder(InvertedIndex index) {
+	public InvertedIndexBuilder(MutableIndexInterface index) {
 		this.index = index;
 	}
 
 	/**
 	 * Traverses a given directory and goes through every file. If the file ends
-	 * with ".txt", then it hands off that file and the index to the parseFile
-	 * method.
+	 * with ".txt" or ".txt.gz", then it hands off that file and the index to
+	 * the parseFile method.
 	 * 
 	 * @param path
 	 *            the direcotry to start traversing from
@@ -33,7 +33,7 @@ public class InvertedIndexBuilder implements InvertedIndexBuilderInterface {
 				if (Files.isDirectory(file)) {
 					traverse(file);
 				} else {
-					if (file.getFileName().toString().toLowerCase().endsWith(".txt")) {
+					if (InvertedIndexBuilderInterface.isTextFile(file)) {
 						InvertedIndexBuilderInterface.parseFile(file, index);
 					}
 				}
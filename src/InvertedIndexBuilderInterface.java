@@ -1,15 +1,15 @@
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.nio.charset.Charset;
-import java.nio.file.Files;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
 import java.nio.file.Path;
 
 public interface InvertedIndexBuilderInterface {
 
 	/**
 	 * Traverses a given directory and goes through every file. If the file ends
-	 * with ".txt", then it hands off that file and the index to the parseFile
-	 * method.
+	 * with ".txt" or ".txt.gz", then it hands off that file and the index to
+	 * the parseFile method.
 	 * 
 	 * @param path
 	 *            the direcotry to start traversing from
@@ -20,8 +20,24 @@ public interface InvertedIndexBuilderInterface {
 	public void traverse(Path path) throws IOException;
 
 	/**
-	 * Parses a given text file and the words in each line. Each legal word is
-	 * added to the given index.
+	 * Checks whether a file is a text file that should be indexed, either as
+	 * it is or compressed with gzip.
+	 * 
+	 * @param file
+	 *            the file to check.
+	 * @return whether the file's name ends with ".txt" or ".txt.gz".
+	 */
+	public static boolean isTextFile(Path file) {
+		String name = file.getFileName().toString().toLowerCase();
+		return name.endsWith(".txt") || name.endsWith(".txt.gz");
+	}
+
+	/**
+	 * Parses a given text file and the words in it. Each legal word is added
+	 * to the given index. The words are read straight from the file's bytes by
+	 * a {@link TextFileReader}, and give the same words as cleaning each line
+	 * with {@link #clean(String)} and splitting it on whitespace. A file
+	 * compressed with gzip is decompressed as it is read.
 	 * 
 	 * @param input
 	 *            the file being parsed
@@ -29,28 +45,139 @@ public interface InvertedIndexBuilderInterface {
 	 *            the InvertedIndex data structure that will add in each word.
 	 * @throws IOException
 	 */
-	public static void parseFile(Path input, InvertedIndex index) throws IOException {
+	public static void parseFile(Path input, MutableIndexInterface index) throws IOException {
+		try (TextFileReader reader = new TextFileReader(input)) {
+			parse(reader, input.normalize().toString(), 1, index);
+		}
+	}
+
+	/**
+	 * Parses the words in a range of a given text file, like
+	 * {@link #parseFile(Path, MutableIndexInterface)}, giving them positions
+	 * that start from the given position. The range should start and end
+	 * between words, as split by {@link TextFileReader#split(Path, int)}, and
+	 * the file must not be compressed.
+	 * 
+	 * @param input
+	 *            the file being parsed
+	 * @param start
+	 *            the offset of the first byte to parse.
+	 * @param end
+	 *            the offset just past the last byte to parse.
+	 * @param position
+	 *            the position of the first word in the range.
+	 * @param index
+	 *            the InvertedIndex data structure that will add in each word.
+	 * @return the position after the last word in the range.
+	 * @throws IOException
+	 */
+	public static int parseFile(Path input, long start, long end, int position, MutableIndexInterface index)
+			throws IOException {
+
+		try (TextFileReader reader = new TextFileReader(input, start, end)) {
+			return parse(reader, input.normalize().toString(), position, index);
+		}
+	}
+
+	/**
+	 * Parses the words of UTF-8 text that has already been read into memory,
+	 * like {@link #parseFile(Path, MutableIndexInterface)}, giving them
+	 * positions that start from the given position. The text is tokenized and
+	 * added to the index a batch of bytes at a time, like the text of a reader,
+	 * so that the words of a large text are never all held at once.
+	 * 
+	 * @param text
+	 *            the UTF-8 text being parsed, from its position to its limit.
+	 * @param location
+	 *            the path of the file that the text was read from.
+	 * @param position
+	 *            the position of the first word of the text.
+	 * @param index
+	 *            the InvertedIndex data structure that will add in each word.
+	 * @return the position after the last word of the text.
+	 * @throws CharacterCodingException
+	 *             if the text is not valid UTF-8.
+	 */
+	public static int parseText(ByteBuffer text, String location, int position, MutableIndexInterface index)
+			throws CharacterCodingException {
 
-		try (BufferedReader reader = Files.newBufferedReader(input, Charset.forName("UTF-8"));) {
-			String line = null;
-			int position = 1;
+		Tokenizer tokenizer = new Tokenizer();
+		int end = text.limit();
+		int batch = 1 << 16;
 
-			String location = input.normalize().toString();
+		while (text.position() < end) {
+			int start = text.position();
+			int limit = (int) Math.min(end, (long) start + batch);
 
-			while ((line = reader.readLine()) != null) {
-				line = InvertedIndexBuilderInterface.clean(line);
-				String[] words = line.split("\\s+");
+			text.limit(limit);
+			tokenizer.tokenize(text, limit == end);
+			text.limit(end);
 
-				for (String word : words) {
-					if (!word.isEmpty()) {
-						index.add(word.trim(), location, position);
-						position++;
-					}
-				}
+			// A single word that fills the batch is read with a larger one.
+			if (text.position() == start) {
+				batch = (int) Math.min(Integer.MAX_VALUE, (long) batch * 2);
 			}
+
+			position = index.addDocument(location, tokenizer.words(), tokenizer.size(), position);
+			tokenizer.clear();
+		}
+
+		return position;
+	}
+
+	/**
+	 * Parses the words of UTF-8 text read from a stream, such as one that
+	 * decompresses a file that has already been read into memory, like
+	 * {@link #parseFile(Path, MutableIndexInterface)}. The stream is closed
+	 * once it has been read.
+	 * 
+	 * @param text
+	 *            the stream of UTF-8 text being parsed.
+	 * @param location
+	 *            the path of the file that the text was read from.
+	 * @param position
+	 *            the position of the first word of the text.
+	 * @param index
+	 *            the InvertedIndex data structure that will add in each word.
+	 * @return the position after the last word of the text.
+	 * @throws IOException
+	 */
+	public static int parseText(InputStream text, String location, int position, MutableIndexInterface index)
+			throws IOException {
+
+		try (TextFileReader reader = new TextFileReader(text)) {
+			return parse(reader, location, position, index);
 		}
 	}
 
+	/**
+	 * Parses every word that is left for a reader to read, adding each one to
+	 * the given index a buffer of words at a time.
+	 * 
+	 * @param reader
+	 *            the reader of the text being parsed.
+	 * @param location
+	 *            the path of the file that the text is read from.
+	 * @param position
+	 *            the position of the next word that the reader reads.
+	 * @param index
+	 *            the InvertedIndex data structure that will add in each word.
+	 * @return the position after the last word that was read.
+	 * @throws IOException
+	 */
+	public static int parse(TextFileReader reader, String location, int position, MutableIndexInterface index)
+			throws IOException {
+
+		Tokenizer tokenizer = new Tokenizer();
+
+		while (reader.read(tokenizer)) {
+			position = index.addDocument(location, tokenizer.words(), tokenizer.size(), position);
+			tokenizer.clear();
+		}
+
+		return position;
+	}
+
 	/**
 	 * For a given line: trims leading and trailing whitespace, converts all
 	 * letters to lower-case, and replaces all illegal chars such as punctuation
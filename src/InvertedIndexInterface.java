@@ -0,0 +1,109 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+
+/**
+ * The read side of an inverted index, shared by the mutable
+ * {@link InvertedIndex} and its read-only {@link FrozenIndex} snapshot. This is
+ * all that the query helpers and the search engine server need.
+ */
+public interface InvertedIndexInterface {
+
+	/**
+	 * Searches index for the exact word or words in the query, and puts that
+	 * word's location in terms of file, count, and size into a SearchResult
+	 * object, which is placed into an ArrayList and then returned.
+	 *
+	 * @param query
+	 *            an array of search queries or a query.
+	 * @return a sorted list of SearchResult objects.
+	 */
+	public default ArrayList<SearchResult> exactSearch(String[] query) {
+		return search(query, true, Integer.MAX_VALUE, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Searches index for a word or words that start with the prefix or prefixes
+	 * given in the query, and puts those word's or words' location in terms of
+	 * file, count, and size into a SearchResult object, which is placed into an
+	 * ArrayList and then returned.
+	 *
+	 * @param query
+	 *            an array of search queries or a query.
+	 * @return a sorted list of SearchResult objects.
+	 */
+	public default ArrayList<SearchResult> partialSearch(String[] query) {
+		return search(query, false, Integer.MAX_VALUE, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Searches index like {@link #partialSearch(String[])}, but expands each
+	 * prefix into at most the given number of words, taking the first words
+	 * that start with the prefix in sorted order.
+	 *
+	 * @param query
+	 *            an array of search queries or a query.
+	 * @param limit
+	 *            the most words to expand each prefix into.
+	 * @return a sorted list of SearchResult objects.
+	 */
+	public default ArrayList<SearchResult> partialSearch(String[] query, int limit) {
+		return search(query, false, limit, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Searches index for the query, and returns only the best k results.
+	 *
+	 * @param query
+	 *            an array of search queries or a query.
+	 * @param exact
+	 *            whether to search for exact words instead of prefixes.
+	 * @param k
+	 *            the most results to return.
+	 * @return a sorted list of at most k SearchResult objects.
+	 * @see #search(String[], boolean, int, int)
+	 */
+	public default SearchResultList search(String[] query, boolean exact, int k) {
+		return search(query, exact, Integer.MAX_VALUE, k);
+	}
+
+	/**
+	 * Searches index for the exact words or the prefixes in the query, and
+	 * returns the best k results. Every file that matches is still counted,
+	 * but only the best k results are kept in a bounded heap while the rest
+	 * are dropped, instead of sorting all of them.
+	 *
+	 * @param query
+	 *            an array of search queries or a query.
+	 * @param exact
+	 *            whether to search for exact words instead of prefixes.
+	 * @param limit
+	 *            the most words to expand each prefix into.
+	 * @param k
+	 *            the most results to return.
+	 * @return a sorted list of at most k SearchResult objects, and the number
+	 *         of files that matched.
+	 * @see SearchResult#top(ArrayList, int)
+	 */
+	public SearchResultList search(String[] query, boolean exact, int limit, int k);
+
+	/**
+	 * Writes the index's data onto a file in JSON format.
+	 *
+	 * @param output
+	 *            the file that the index's data will be printed onto.
+	 * @throws IOException
+	 */
+	public void toJSON(Path output) throws IOException;
+
+	/**
+	 * Writes the index onto a file in the binary format that can be opened
+	 * again by {@link IndexSegment#open(Path)}.
+	 *
+	 * @param output
+	 *            the file that the binary index will be written to.
+	 * @throws IOException
+	 */
+	public void toBinary(Path output) throws IOException;
+
+}
@@ -6,8 +6,8 @@ import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Map;
+import java.util.PrimitiveIterator;
 import java.util.TreeMap;
-import java.util.TreeSet;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -28,17 +28,21 @@ public class JSONWriter {
 	private static final Logger logger = LogManager.getLogger();
 
 	/**
-	 * Writes data from a Map to JSON format on a JSON file.
+	 * Writes data from a Map to JSON format on a JSON file. The inner maps are
+	 * keyed by file ID, so each ID is resolved to its path through the given
+	 * document table and the files of each word are written in path order.
 	 * 
 	 * @param outFile
 	 *            the file that the JSON output is saved on
 	 * @param map
 	 *            the data structure who's data is being used to write JSON
 	 *            output
+	 * @param documents
+	 *            the table used to look up the path of each file ID
 	 * @throws IOException
 	 */
-	public static void writeNestedObject(Path outFile, Map<String, TreeMap<String, TreeSet<Integer>>> map)
-			throws IOException {
+	public static void writeNestedObject(Path outFile, Map<String, TreeMap<Integer, PositionList>> map,
+			DocumentTable documents) throws IOException {
 
 		try (BufferedWriter writer = Files.newBufferedWriter(outFile, Charset.forName("UTF-8"));) {
 			writer.write("{" + END);
@@ -48,15 +52,21 @@ public class JSONWriter {
 			for (String word : map.keySet()) {
 				writer.write(JSONWriter.tab(1) + JSONWriter.quote(word) + ": {" + END);
 
+				TreeMap<String, PositionList> files = new TreeMap<>();
+				for (Integer id : map.get(word).keySet()) {
+					files.put(documents.getPath(id), map.get(word).get(id));
+				}
+
 				int count2 = 1;
-				int size2 = map.get(word).keySet().size();
-				for (String file : map.get(word).keySet()) {
+				int size2 = files.keySet().size();
+				for (String file : files.keySet()) {
 					writer.write(JSONWriter.tab(2) + JSONWriter.quote(file) + ": [" + END);
 
 					int count3 = 1;
-					int size3 = map.get(word).get(file).size();
-					for (Integer position : map.get(word).get(file)) {
-						writer.write(JSONWriter.tab(3) + position + JSONWriter.addComma(count3, size3) + END);
+					int size3 = files.get(file).size();
+					PrimitiveIterator.OfInt positions = files.get(file).iterator();
+					while (positions.hasNext()) {
+						writer.write(JSONWriter.tab(3) + positions.nextInt() + JSONWriter.addComma(count3, size3) + END);
 						count3++;
 					}
 
@@ -76,6 +86,51 @@ public class JSONWriter {
 		}
 	}
 
+	/**
+	 * Writes the data of a frozen index to JSON format on a JSON file. The
+	 * files of a frozen index are already numbered in path order, so they are
+	 * written in the order they are stored.
+	 * 
+	 * @param outFile
+	 *            the file that the JSON output is saved on
+	 * @param index
+	 *            the frozen index who's data is being used to write JSON output
+	 * @throws IOException
+	 */
+	public static void writeNestedObject(Path outFile, FrozenIndex index) throws IOException {
+
+		try (BufferedWriter writer = Files.newBufferedWriter(outFile, Charset.forName("UTF-8"));) {
+			writer.write("{" + END);
+
+			int size1 = index.size();
+			for (int term = 0; term < size1; term++) {
+				writer.write(JSONWriter.tab(1) + JSONWriter.quote(index.getTerm(term)) + ": {" + END);
+
+				int end = index.getPostingEnd(term);
+				for (int posting = index.getPostingStart(term); posting < end; posting++) {
+					String file = index.getPath(index.getDocument(posting));
+					writer.write(JSONWriter.tab(2) + JSONWriter.quote(file) + ": [" + END);
+
+					PrimitiveIterator.OfInt positions = index.getPositions(posting);
+					while (positions.hasNext()) {
+						int position = positions.nextInt();
+						writer.write(JSONWriter.tab(3) + position + (positions.hasNext() ? "," : "") + END);
+					}
+
+					writer.write(JSONWriter.tab(2) + "]" + JSONWriter.addComma(posting + 1, end) + END);
+				}
+
+				writer.write(JSONWriter.tab(1) + "}" + JSONWriter.addComma(term + 1, size1) + END);
+			}
+
+			writer.write("}" + END);
+		} catch (Exception e) {
+			System.err.println("Error in writeNestedObject");
+			System.err.println(e.getMessage());
+			logger.debug("Error", e);
+		}
+	}
+
 	/**
 	 * Outputs the Map of queries and results to a file in JSON format.
 	 * 
@@ -2,35 +2,138 @@ import java.io.IOException;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 /**
- * Creates and stores an inverted index in the form of TreeMap<String,
- * TreeMap<String, TreeSet<Integer>>>. The inverted index documents words and
- * the files that they are found in, as well as the position that specific word
- * can be found in said file.
+ * A thread-safe inverted index whose searches never lock. The index is kept as
+ * a list of immutable {@link FrozenIndex} segments, published through a
+ * volatile reference. Writers freeze their changes into a new segment on
+ * their own, and then publish a new list of segments that includes it, so a
+ * search always sees one complete version of the index and is never blocked
+ * by a writer.
+ *
+ * Writers only wait on one another to publish a new array of segments, which
+ * is never merged under the lock. To keep the number of segments small, the
+ * newest segments are then merged with the ones before them for as long as
+ * those are not larger, so there are only ever about log(n) segments and each
+ * posting is only merged about log(n) times. Only one writer merges at a time,
+ * on a snapshot of the segments without holding the lock, and the merged
+ * segment only replaces the segments it was made from if no other writer has
+ * changed them in the meantime; otherwise the merge is tried again. The other
+ * writers publish their segments and return without waiting for it.
+ *
+ * Files are removed by publishing copies of the segments that hold them with
+ * a tombstone on the file, which shares all of their postings, so removing a
+ * file is cheap. The postings of removed files are dropped when their segment
+ * is merged, or when it is compacted, which is done in the background once
+ * enough of a segment's files have been removed.
  */
-public class MultiInvertedIndex extends InvertedIndex {
+public class MultiInvertedIndex implements MutableIndexInterface {
+
+	/**
+	 * A segment is compacted in the background once at least one in this many
+	 * of its files have been removed.
+	 */
+	private static final int COMPACT_RATIO = 4;
 
 	private static final Logger logger = LogManager.getLogger();
 	private final ReadWriteLock lock;
 
+	/** The table that the words of the index are interned in. */
+	private final TermTable terms;
+
+	/**
+	 * The published segments, from oldest and largest to newest. The array is
+	 * never changed once it is published; writers replace it instead.
+	 */
+	private volatile FrozenIndex[] segments;
+
+	/** How much of the positions the segments keep. */
+	private final PositionMode positions;
+
+	/** The work queue to compact segments on, or null to never do so. */
+	private WorkQueue compactor;
+
+	/** Whether a compaction has been queued and has not finished yet. */
+	private boolean compacting;
+
+	/** Whether a writer is merging segments. */
+	private boolean merging;
+
 	/**
 	 * The constructor. Instantiates a new index.
 	 */
 	public MultiInvertedIndex() {
-		super();
+		this(new TermTable(), PositionMode.ALL);
+	}
+
+	/**
+	 * The constructor. Instantiates a new index whose words are interned in
+	 * the given term table.
+	 *
+	 * @param terms
+	 *            the table to intern the words of the index in.
+	 */
+	public MultiInvertedIndex(TermTable terms) {
+		this(terms, PositionMode.ALL);
+	}
+
+	/**
+	 * The constructor. Instantiates a new index whose words are interned in
+	 * the given term table, and that only keeps the given amount of the
+	 * positions. Positions that are not kept are dropped as each segment is
+	 * published, so they do not take up memory while the index is built.
+	 *
+	 * @param terms
+	 *            the table to intern the words of the index in.
+	 * @param positions
+	 *            how much of the positions to keep.
+	 */
+	public MultiInvertedIndex(TermTable terms, PositionMode positions) {
+		this.terms = terms;
 		lock = new ReadWriteLock();
+		segments = new FrozenIndex[0];
+		this.positions = positions;
+		compactor = null;
+		compacting = false;
+		merging = false;
 	}
 
 	/**
-	 * Adds a word, it's file, and it's position to the index, after checking to
-	 * make sure the word, file, or index is not already included. If the word
-	 * is included and not current file, or the word and file but not the
-	 * current position, then it will add said file or position accordingly.
-	 * 
+	 * @return the table that the words of the index are interned in.
+	 */
+	@Override
+	public TermTable getTermTable() {
+		return terms;
+	}
+
+	/**
+	 * Sets the work queue that segments with many removed files are compacted
+	 * on in the background. Until it is set, the postings of removed files are
+	 * only dropped when their segment is merged.
+	 *
+	 * @param queue
+	 *            the work queue to compact segments on.
+	 */
+	@Override
+	public void setCompactor(WorkQueue queue) {
+		lock.lockReadWrite();
+		try {
+			compactor = queue;
+		} finally {
+			lock.unlockReadWrite();
+		}
+	}
+
+	/**
+	 * Adds a word, it's file, and it's position to the index, publishing it as
+	 * a segment of its own. This is only meant for adding a few words;
+	 * {@link #addDocument(String, String[], int, int)} or
+	 * {@link #addAll(InvertedIndex)} should be used to add more than that.
+	 *
 	 * @param word
 	 *            the word to add to the index
 	 * @param file
@@ -40,84 +143,370 @@ public class MultiInvertedIndex extends InvertedIndex {
 	 */
 	@Override
 	public void add(String word, String file, Integer position) {
-		logger.trace("add(): Adding word \"{}\", file \"{}\", and position \"{}\".", word, file, position);
+		addDocument(file, new String[] { word }, 1, position);
+	}
+
+	/**
+	 * Adds the words of a document to the index, publishing them all as a
+	 * single new version of the index.
+	 *
+	 * @param file
+	 *            the file that the words are found in
+	 * @param words
+	 *            the words of the file, in the order they are found
+	 * @param count
+	 *            the number of words at the start of the array to add
+	 * @param position
+	 *            the position in the file of the first word
+	 * @return the position after the last word that was added
+	 */
+	@Override
+	public int addDocument(String file, String[] words, int count, int position) {
+		logger.trace("addDocument(): Adding {} words of file \"{}\".", count, file);
+		InvertedIndex local = new InvertedIndex(getTermTable());
+		position = local.addDocument(file, words, count, position);
+		addAll(local);
+		return position;
+	}
+
+	/**
+	 * Adds the contents of another index to this one. The other index is
+	 * frozen into a new segment before any lock is taken, and only publishing
+	 * the segment waits on other writers.
+	 *
+	 * @param other
+	 *            the other index.
+	 */
+	@Override
+	public void addAll(InvertedIndex other) {
+		publish(other.freeze().withPositions(positions), null);
+	}
+
+	/**
+	 * Removes a file from the index, by publishing a version of the index in
+	 * which every segment that holds the file has a tombstone on it.
+	 *
+	 * @param path
+	 *            the file or URL of the document to remove.
+	 * @return whether the file was in the index.
+	 */
+	@Override
+	public boolean removeDocument(String path) {
+		return publish(null, path);
+	}
+
+	/**
+	 * Replaces the words of a file with the contents of another index. The
+	 * file is removed and the new version is added in the same version of the
+	 * index, so a search finds either the old version or the new one, but
+	 * never both or neither.
+	 *
+	 * @param path
+	 *            the file or URL of the document to replace.
+	 * @param document
+	 *            the index of the new version of the document.
+	 */
+	@Override
+	public void replaceDocument(String path, InvertedIndex document) {
+		publish(document.freeze().withPositions(positions), path);
+	}
+
+	/**
+	 * Drops the postings of removed files from every segment that has any.
+	 * The segments are compacted before any lock is taken, and a compacted
+	 * segment is only published if its segment has not been changed by a
+	 * writer in the meantime. Segments that are left without any files are
+	 * dropped.
+	 */
+	public void compact() {
+		FrozenIndex[] current = segments;
+		FrozenIndex[] compacted = new FrozenIndex[current.length];
+
+		for (int i = 0; i < current.length; i++) {
+			compacted[i] = current[i].compact();
+		}
+
 		lock.lockReadWrite();
 		try {
-			super.add(word, file, position);
+			ArrayList<FrozenIndex> next = new ArrayList<>();
+
+			for (FrozenIndex segment : segments) {
+				for (int i = 0; i < current.length; i++) {
+					if (current[i] == segment) {
+						segment = compacted[i];
+						break;
+					}
+				}
+
+				if (segment.getDocumentCount() > 0) {
+					next.add(segment);
+				}
+			}
+
+			logger.debug("compact(): Compacted {} segments into {}.", segments.length, next.size());
+			segments = next.toArray(new FrozenIndex[next.size()]);
 		} finally {
 			lock.unlockReadWrite();
 		}
 	}
 
 	/**
-	 * Passes the index and a file for the JSONWriter class to use in order to
-	 * print the index's data onto a file in JSON format.
-	 * 
-	 * @param output
-	 *            the file that the JSONWriter will print index's data onto.
-	 * @throws IOExceptions
+	 * Publishes a new version of the index, in which the given file is removed
+	 * from every segment and then the given segment is added. Unless another
+	 * writer is already merging, then merges the newest segments. Queues a
+	 * compaction if a segment now has too many removed files.
+	 *
+	 * @param segment
+	 *            the segment to add, or null.
+	 * @param removed
+	 *            the path of the file to remove, or null.
+	 * @return whether the removed file was in the index.
 	 */
-	@Override
-	public void toJSON(Path output) throws IOException {
-		logger.debug("toJSON(): Sending {} to be written by the JSONWriter class.", output);
-		lock.lockReadOnly();
-		// Use try/finally just incase exception is thrown, lock is still
-		// unlocked.
+	private boolean publish(FrozenIndex segment, String removed) {
+		if (segment != null && segment.getDocumentCount() == 0) {
+			segment = null;
+		}
+
+		if (segment == null && removed == null) {
+			return false;
+		}
+
+		boolean found = false;
+		boolean merge = false;
+		WorkQueue queue = null;
+
+		lock.lockReadWrite();
 		try {
-			super.toJSON(output);
+			FrozenIndex[] current = segments;
+			FrozenIndex[] next = Arrays.copyOf(current, current.length + (segment == null ? 0 : 1));
+			boolean compact = false;
+
+			if (removed != null) {
+				for (int i = 0; i < current.length; i++) {
+					next[i] = current[i].withoutDocument(removed);
+					found = found || next[i] != current[i];
+					compact = compact || next[i].getRemovedCount() * COMPACT_RATIO >= next[i].getDocumentCount();
+				}
+			}
+
+			if (segment != null) {
+				next[current.length] = segment;
+
+				if (!merging) {
+					merging = true;
+					merge = true;
+				}
+			}
+
+			segments = next;
+
+			if (compact && compactor != null && !compacting) {
+				compacting = true;
+				queue = compactor;
+			}
 		} finally {
-			lock.unlockReadOnly();
+			lock.unlockReadWrite();
+		}
+
+		if (queue != null) {
+			queue.execute(new Compactor());
+		}
+
+		if (merge) {
+			merge();
 		}
+
+		return found;
 	}
 
 	/**
-	 * Searches index for the exact word or words in the query, and puts that
-	 * word's location in terms of file, count, and size into a SearchResult
-	 * object, which is placed into an ArrayList and then returned.
-	 * 
-	 * @param query
-	 *            an array of search queries or a query.
-	 * @return a list of SearchResult objects.
+	 * Merges the newest segments with the ones before them for as long as
+	 * those are not larger, until there is nothing left to merge, including
+	 * any segments that other writers publish in the meantime. Each merge is
+	 * made from a snapshot of the segments without holding the lock.
 	 */
-	@Override
-	public ArrayList<SearchResult> exactSearch(String[] query) {
-		logger.debug("exactSearch(): Searching for {}.", Arrays.toString(query));
-		lock.lockReadOnly();
+	private void merge() {
 		try {
-			return super.exactSearch(query);
+			while (true) {
+				FrozenIndex[] run;
+
+				lock.lockReadWrite();
+				try {
+					FrozenIndex[] current = segments;
+					int start = current.length - 1;
+					long total = start >= 0 ? current[start].getPostingCount() : 0;
+
+					while (start > 0 && current[start - 1].getPostingCount() <= total) {
+						start--;
+						total += current[start].getPostingCount();
+					}
+
+					if (current.length - start < 2) {
+						merging = false;
+						return;
+					}
+
+					run = Arrays.copyOfRange(current, start, current.length);
+				} finally {
+					lock.unlockReadWrite();
+				}
+
+				logger.debug("merge(): Merging {} segments.", run.length);
+				replace(run, FrozenIndex.merge(run));
+			}
+		} catch (RuntimeException e) {
+			lock.lockReadWrite();
+			try {
+				merging = false;
+			} finally {
+				lock.unlockReadWrite();
+			}
+
+			throw e;
+		}
+	}
+
+	/**
+	 * Publishes a segment in place of the segments it was made from, if they
+	 * are still published next to one another, unchanged.
+	 *
+	 * @return whether the segment was published.
+	 */
+	private boolean replace(FrozenIndex[] run, FrozenIndex merged) {
+		lock.lockReadWrite();
+		try {
+			FrozenIndex[] current = segments;
+
+			search: for (int i = 0; i + run.length <= current.length; i++) {
+				for (int j = 0; j < run.length; j++) {
+					if (current[i + j] != run[j]) {
+						continue search;
+					}
+				}
+
+				FrozenIndex[] next = new FrozenIndex[current.length - run.length + 1];
+				System.arraycopy(current, 0, next, 0, i);
+				next[i] = merged;
+				System.arraycopy(current, i + run.length, next, i + 1, current.length - i - run.length);
+				segments = next;
+				return true;
+			}
+
+			logger.debug("replace(): Segments changed while merging, discarding the merge.");
+			return false;
 		} finally {
-			lock.unlockReadOnly();
+			lock.unlockReadWrite();
+		}
+	}
+
+	/**
+	 * Creates an immutable, read-optimized snapshot of the index by merging
+	 * its segments and dropping the postings of removed files, without
+	 * holding the lock. The merged snapshot is also published in place of the
+	 * segments it was made from, unless a writer changed them in the
+	 * meantime, so later searches and snapshots do not have to merge again.
+	 *
+	 * @return the frozen snapshot of the index.
+	 */
+	@Override
+	public FrozenIndex freeze() {
+		logger.debug("freeze(): Creating a read-only snapshot.");
+
+		FrozenIndex[] current = segments;
+		FrozenIndex merged = FrozenIndex.merge(current).compact();
+
+		if (current.length > 0) {
+			replace(current, merged);
 		}
+
+		return merged;
 	}
 
 	/**
-	 * Searches index for a word or words that start with the prefix or prefixes
-	 * given in the query, and puts those word's or words' location in terms of
-	 * file, count, and size into a SearchResult object, which is placed into an
-	 * ArrayList and then returned.
-	 * 
+	 * Freezes the index and writes the snapshot onto a file in JSON format.
+	 *
+	 * @param output
+	 *            the file that the JSONWriter will print index's data onto.
+	 * @throws IOExceptions
+	 */
+	@Override
+	public void toJSON(Path output) throws IOException {
+		logger.debug("toJSON(): Sending {} to be written by the JSONWriter class.", output);
+		freeze().toJSON(output);
+	}
+
+	/**
+	 * Searches the current version of the index for the exact word or words
+	 * in the query, or for the words that start with the prefix or prefixes in
+	 * the query, and returns the best k results, without locking. Since a file
+	 * may be in more than one segment, the results of the segments are combined
+	 * by path before the best k are chosen. A position that was added more
+	 * than once, in separate batches, is counted once for each batch until the
+	 * segments are merged. With a limit, each segment expands a prefix into the
+	 * first matching words that it holds itself.
+	 *
 	 * @param query
 	 *            an array of search queries or a query.
-	 * @return a list of SearchResult objects.
+	 * @param exact
+	 *            whether to search for exact words instead of prefixes.
+	 * @param limit
+	 *            the most words to expand each prefix into.
+	 * @param k
+	 *            the most results to return.
+	 * @return a sorted list of at most k SearchResult objects.
 	 */
 	@Override
-	public ArrayList<SearchResult> partialSearch(String[] query) {
-		logger.debug("partialSearch(): Searching for {}.", Arrays.toString(query));
-		lock.lockReadOnly();
-		try {
-			return super.partialSearch(query);
-		} finally {
-			lock.unlockReadOnly();
+	public SearchResultList search(String[] query, boolean exact, int limit, int k) {
+		logger.debug("search(): Searching for {}.", Arrays.toString(query));
+		FrozenIndex[] current = segments;
+
+		// Exact words that no segment's Bloom filter knows of are missing.
+		if (exact && !FrozenIndex.mightContainAny(current, query)) {
+			return new SearchResultList(0);
 		}
+
+		if (current.length == 1) {
+			return current[0].search(query, exact, limit, k);
+		}
+
+		ArrayList<SearchResult> list = new ArrayList<>();
+		HashMap<String, SearchResult> map = new HashMap<>();
+
+		for (FrozenIndex segment : current) {
+			for (SearchResult result : segment.search(query, exact, limit, Integer.MAX_VALUE)) {
+				SearchResult existing = map.get(result.getPath());
+
+				if (existing != null) {
+					existing.addCount(result.getCount());
+					existing.setFirstPosition(result.getFirstPosition());
+				} else {
+					map.put(result.getPath(), result);
+					list.add(result);
+				}
+			}
+		}
+
+		return SearchResult.top(list, k);
 	}
 
-	@Override
-	public void addAll(InvertedIndex other) {
-		lock.lockReadWrite();
-		try {
-			super.addAll(other);
-		} finally {
-			lock.unlockReadWrite();
+	/**
+	 * Compacts the segments in the background, so that removing a file never
+	 * waits on a compaction.
+	 */
+	private class Compactor implements Runnable {
+
+		@Override
+		public void run() {
+			try {
+				compact();
+			} finally {
+				lock.lockReadWrite();
+				try {
+					compacting = false;
+				} finally {
+					lock.unlockReadWrite();
+				}
+			}
 		}
 	}
-}
\ No newline at end of file
+}
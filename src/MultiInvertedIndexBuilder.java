@@ -1,44 +1,144 @@
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.zip.GZIPInputStream;
 
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+/**
+ * Traverses a given directory and parses every text file in a pipeline of
+ * stages. The calling thread walks the directory and queues the files it
+ * finds. A few reader threads take the files off that queue and read each one
+ * into memory, and then hand it to the work queue, where a {@link Minion}
+ * tokenizes it into a local index and passes it on to the {@link IndexMerger},
+ * which adds the files to the shared index in batches.
+ *
+ * The stages are joined by bounded queues, so that while a reader waits on the
+ * disk, the workers keep tokenizing the files that have already been read.
+ * The walker waits once enough files are queued, and the readers wait once
+ * enough bytes have been read but not yet parsed, so the memory used is capped
+ * however far ahead of the workers the disk can get. The workers themselves
+ * never wait on another stage, so they cannot deadlock the work queue.
+ *
+ * Files compressed with gzip are read into memory as they are, so the readers
+ * only wait on the compressed bytes, and are decompressed by the workers as
+ * they are tokenized, without the text ever being written out.
+ *
+ * Files that are large enough to keep a thread busy for much longer than the
+ * rest are not read into memory, but split into chunks between words, which
+ * are parsed at the same time. Large compressed files cannot be split, so
+ * they are read and decompressed straight from the disk by a worker.
+ */
 public class MultiInvertedIndexBuilder implements InvertedIndexBuilderInterface {
 
+	/**
+	 * Files of at least this many bytes are split into chunks that are parsed
+	 * at the same time.
+	 */
+	private static final long SPLIT_SIZE = 1 << 25;
+
+	/** The number of bytes of each chunk of a split file. */
+	private static final long CHUNK_SIZE = 1 << 24;
+
+	/** The number of threads that read files into memory for the workers. */
+	private static final int READERS = 2;
+
+	/** The most files that may wait for a reader. */
+	private static final int QUEUED_FILES = 1024;
+
+	/**
+	 * The most bytes of files that may be held in memory between being read
+	 * and being parsed, which must be more than {@link #SPLIT_SIZE}.
+	 */
+	private static final int BUFFERED_BYTES = 1 << 26;
+
+	/** Tells a reader that there are no more files to read. */
+	private static final Path DONE = Paths.get("");
+
 	private static final Logger logger = LogManager.getLogger();
 
-	private final MultiInvertedIndex index;
+	private final IndexMerger merger;
+
+	private final TermTable terms;
 
 	private final WorkQueue minions;
 
-	public MultiInvertedIndexBuilder(MultiInvertedIndex index, WorkQueue minions) {
-		this.index = index;
+	/** The bytes that may still be read before the readers have to wait. */
+	private final Semaphore buffered;
+
+	public MultiInvertedIndexBuilder(MutableIndexInterface index, WorkQueue minions) {
+		this.merger = new IndexMerger(index);
+		this.terms = index.getTermTable();
 		this.minions = minions;
+		this.buffered = new Semaphore(BUFFERED_BYTES);
 	}
 
 	/**
 	 * Traverses a given directory and goes through every file. If the file ends
-	 * with ".txt", then it hands off that file and the index to the parseFile
-	 * method.
+	 * with ".txt" or ".txt.gz", then it is queued for the readers, which read
+	 * it and hand it off to a {@link Minion}. Waits for every file to be
+	 * parsed, and for the last of the merged files to be added to the index.
 	 * 
 	 * @param path
 	 *            the directory to start traversing from
-	 * @param index
-	 *            the inverted index to hand off to the parseFile method.
 	 * @throws IOException
+	 *             if interrupted while waiting for the readers.
 	 */
 	public void traverse(Path path) throws IOException {
+		BlockingQueue<Path> files = new ArrayBlockingQueue<>(QUEUED_FILES);
+		Thread[] readers = new Thread[READERS];
+
+		for (int i = 0; i < readers.length; i++) {
+			readers[i] = new Thread(new Reader(files));
+			readers[i].setDaemon(true);
+			readers[i].start();
+		}
+
+		try {
+			traverseDirectory(path, files);
+
+			for (int i = 0; i < readers.length; i++) {
+				files.put(DONE);
+			}
+
+			for (Thread reader : readers) {
+				reader.join();
+			}
+		} catch (InterruptedException e) {
+			for (Thread reader : readers) {
+				reader.interrupt();
+			}
+
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while traversing " + path);
+		}
+
+		minions.finish();
+		merger.flush();
+	}
+
+	/**
+	 * Queues every ".txt" and ".txt.gz" file within the given directory and its
+	 * subdirectories for the readers, waiting whenever the queue is full.
+	 */
+	private void traverseDirectory(Path path, BlockingQueue<Path> files) throws InterruptedException {
 		try (DirectoryStream<Path> listing = Files.newDirectoryStream(path)) {
 			for (Path file : listing) {
 				if (Files.isDirectory(file)) {
-					traverse(file);
+					traverseDirectory(file, files);
 				} else {
-					if (file.getFileName().toString().toLowerCase().endsWith(".txt")) {
-						minions.execute(new Minion(file));
+					if (InvertedIndexBuilderInterface.isTextFile(file)) {
+						files.put(file);
 					}
 				}
 			}
@@ -46,35 +146,241 @@ public class MultiInvertedIndexBuilder implements InvertedIndexBuilderInterface
 			logger.warn("Unable to traverse {}", path);
 			logger.catching(Level.DEBUG, e);
 		}
+	}
 
-		minions.finish();
+	/**
+	 * Reads the files that the walker queues into memory and hands them off
+	 * to {@link Minion}s, until it is told there are no more. Waits before
+	 * reading a file until the bytes that have been read but not yet parsed
+	 * leave enough room for it. Large files are split into chunks instead. A
+	 * file that cannot be read is logged and skipped, so that the reader keeps
+	 * taking files off the queue and the walker never waits on it forever.
+	 */
+	private class Reader implements Runnable {
+
+		private final BlockingQueue<Path> files;
+
+		public Reader(BlockingQueue<Path> files) {
+			this.files = files;
+		}
+
+		@Override
+		public void run() {
+			try {
+				Path file;
+
+				while ((file = files.take()) != DONE) {
+					try {
+						read(file);
+					} catch (RuntimeException e) {
+						logger.warn("Unable to read {}", file);
+						logger.catching(Level.DEBUG, e);
+					}
+				}
+			} catch (InterruptedException e) {
+				logger.debug("Reader interrupted.");
+			}
+		}
+
+		private void read(Path file) throws InterruptedException {
+			long size;
+			byte[] bytes;
+
+			try {
+				size = Files.size(file);
+
+				if (size >= SPLIT_SIZE && TextFileReader.isCompressed(file)) {
+					minions.execute(new Minion(file, null, 0));
+					return;
+				} else if (size >= SPLIT_SIZE) {
+					long[] bounds = TextFileReader.split(file,
+							(int) Math.min(Integer.MAX_VALUE - 1, size / CHUNK_SIZE));
+					new Chunks(file, bounds).parse();
+					return;
+				}
+			} catch (IOException e) {
+				logger.warn("Unable to read {}", file);
+				logger.catching(Level.DEBUG, e);
+				return;
+			}
+
+			buffered.acquire((int) size);
+
+			try {
+				bytes = Files.readAllBytes(file);
+			} catch (IOException e) {
+				buffered.release((int) size);
+				logger.warn("Unable to read {}", file);
+				logger.catching(Level.DEBUG, e);
+				return;
+			}
+
+			try {
+				minions.execute(new Minion(file, bytes, (int) size));
+			} catch (RuntimeException e) {
+				buffered.release((int) size);
+				throw e;
+			}
+		}
 	}
 
 	/**
-	 * Handles per-directory parsing. If a subdirectory is encountered, a new
-	 * {@link Minion} is created to handle that subdirectory.
+	 * Tokenizes a file that has been read into memory into a local index,
+	 * decompressing it first if it is compressed, and hands it off to the
+	 * merger. The file is tokenized a batch of words at a time, so that only
+	 * its bytes, which the readers' budget counts, are held in full. Gives the
+	 * file's bytes back to the readers' budget once it is done. A file that
+	 * has not been read is read from the disk instead.
 	 */
 	private class Minion implements Runnable {
 
-		private Path file;
+		private final Path file;
+		private final byte[] bytes;
+		private final int permits;
 
-		public Minion(Path file) {
+		public Minion(Path file, byte[] bytes, int permits) {
 			logger.debug("Minion created for {}", file);
 			this.file = file;
+			this.bytes = bytes;
+			this.permits = permits;
 		}
 
 		@Override
 		public void run() {
 			try {
-				InvertedIndex local = new InvertedIndex();
-				InvertedIndexBuilderInterface.parseFile(file, local);
-				index.addAll(local);
+				InvertedIndex local = new InvertedIndex(terms);
+				String location = file.normalize().toString();
+
+				if (bytes == null) {
+					InvertedIndexBuilderInterface.parseFile(file, local);
+				} else if (TextFileReader.isCompressed(file)) {
+					InvertedIndexBuilderInterface.parseText(new GZIPInputStream(new ByteArrayInputStream(bytes)),
+							location, 1, local);
+				} else {
+					InvertedIndexBuilderInterface.parseText(ByteBuffer.wrap(bytes), location, 1, local);
+				}
+
+				merger.add(local);
 			} catch (IOException e) {
 				logger.warn("Unable to parse {}", file);
 				logger.catching(Level.DEBUG, e);
+			} finally {
+				buffered.release(permits);
 			}
 
 			logger.debug("Minion finished {}", file);
 		}
 	}
+
+	/**
+	 * The chunks of a large file, which are parsed at the same time, each into
+	 * an index of its own with positions that start from 1 at the start of
+	 * the chunk. Once the last chunk is parsed, the positions of each chunk
+	 * are shifted by the number of words in the chunks before it, to the
+	 * positions the words have in the whole file, and the chunks are handed
+	 * off to the merger. Every chunk is only read once, and no thread ever
+	 * waits for another chunk.
+	 */
+	private class Chunks {
+
+		private final Path file;
+
+		/** The offsets of the chunks, followed by the end of the last one. */
+		private final long[] bounds;
+
+		/** The index of each chunk that has been parsed. */
+		private final InvertedIndex[] parsed;
+
+		/** The number of words in each chunk. */
+		private final int[] counts;
+
+		/** The number of chunks that have not been parsed yet. */
+		private int remaining;
+
+		/** Whether a chunk could not be parsed. */
+		private boolean failed;
+
+		public Chunks(Path file, long[] bounds) {
+			logger.debug("Splitting {} into {} chunks", file, bounds.length - 1);
+			this.file = file;
+			this.bounds = bounds;
+			this.parsed = new InvertedIndex[bounds.length - 1];
+			this.counts = new int[bounds.length - 1];
+			this.remaining = counts.length;
+			this.failed = false;
+		}
+
+		/**
+		 * Hands off every chunk to be parsed.
+		 */
+		public void parse() {
+			for (int chunk = 0; chunk < counts.length; chunk++) {
+				minions.execute(new ChunkMinion(this, chunk));
+			}
+		}
+
+		/**
+		 * Records the index of a chunk and its number of words, or null if it
+		 * could not be parsed. Once every chunk is parsed, shifts the
+		 * positions of each chunk past the words of the chunks before it, and
+		 * hands them off to the merger.
+		 */
+		public void parsed(int chunk, InvertedIndex local, int count) {
+			synchronized (this) {
+				parsed[chunk] = local;
+				counts[chunk] = count;
+				failed = failed || local == null;
+				remaining--;
+
+				if (remaining > 0) {
+					return;
+				}
+			}
+
+			if (failed) {
+				logger.warn("Unable to parse {}", file);
+				return;
+			}
+
+			int offset = 0;
+			for (int i = 0; i < parsed.length; i++) {
+				parsed[i].shift(offset);
+				merger.add(parsed[i]);
+				parsed[i] = null;
+				offset += counts[i];
+			}
+		}
+	}
+
+	/**
+	 * Parses a chunk of a large file into a local index, with positions that
+	 * start from the start of the chunk.
+	 */
+	private class ChunkMinion implements Runnable {
+
+		private final Chunks chunks;
+		private final int chunk;
+
+		public ChunkMinion(Chunks chunks, int chunk) {
+			this.chunks = chunks;
+			this.chunk = chunk;
+		}
+
+		@Override
+		public void run() {
+			long start = chunks.bounds[chunk];
+			long end = chunks.bounds[chunk + 1];
+
+			try {
+				InvertedIndex local = new InvertedIndex(terms);
+				int position = InvertedIndexBuilderInterface.parseFile(chunks.file, start, end, 1, local);
+				chunks.parsed(chunk, local, position - 1);
+			} catch (IOException e) {
+				logger.catching(Level.DEBUG, e);
+				chunks.parsed(chunk, null, 0);
+			}
+
+			logger.debug("Minion finished {} from {} to {}", chunks.file, start, end);
+		}
+	}
 }
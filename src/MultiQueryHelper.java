@@ -28,15 +28,23 @@ public class MultiQueryHelper implements QueryHelperInterface {
 	// A map to store query searches to a list of SearchResult objects.
 	private final TreeMap<String, ArrayList<SearchResult>> map;
 
-	// The inverted index of all words found in all files.
-	// Changed reference from multi to normal to work with driver.
-	private final MultiInvertedIndex index;
+	// The inverted index of all words found in all files. Searched by many
+	// minions at once, so it must be a thread-safe or frozen index.
+	private final InvertedIndexInterface index;
 
-	public MultiQueryHelper(MultiInvertedIndex index, WorkQueue minions) {
+	// The most words each prefix of a partial search is expanded into.
+	private final int limit;
+
+	public MultiQueryHelper(InvertedIndexInterface index, WorkQueue minions) {
+		this(index, minions, Integer.MAX_VALUE);
+	}
+
+	public MultiQueryHelper(InvertedIndexInterface index, WorkQueue minions, int limit) {
 		this.lock = new ReadWriteLock();
 		this.minions = minions;
 
 		this.index = index;
+		this.limit = limit;
 		map = new TreeMap<>();
 	}
 
@@ -104,7 +112,7 @@ public class MultiQueryHelper implements QueryHelperInterface {
 
 				// Efficiency issue fixed where search was inside put()
 				// inside lock, also fixed duplicate code with ternary operator.
-				ArrayList<SearchResult> current = (exact) ? index.exactSearch(words) : index.partialSearch(words);
+				ArrayList<SearchResult> current = (exact) ? index.exactSearch(words) : index.partialSearch(words, limit);
 				lock.lockReadWrite();
 				map.put(line, current);
 				lock.unlockReadWrite();
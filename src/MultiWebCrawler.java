@@ -17,7 +17,8 @@ public class MultiWebCrawler implements WebCrawlerInterface {
 
 	private static final Logger logger = LogManager.getLogger();
 
-	private final MultiInvertedIndex index;
+	private final IndexMerger merger;
+	private final TermTable terms;
 	private final Set<String> urls;
 
 	private final WorkQueue minions;
@@ -31,8 +32,9 @@ public class MultiWebCrawler implements WebCrawlerInterface {
 	 *            The InvertedIndex object that words from sendToIndex() will be
 	 *            sent to.
 	 */
-	public MultiWebCrawler(MultiInvertedIndex index, WorkQueue minions) {
-		this.index = index;
+	public MultiWebCrawler(MutableIndexInterface index, WorkQueue minions) {
+		this.merger = new IndexMerger(index);
+		this.terms = index.getTermTable();
 		this.urls = new HashSet<>();
 
 		this.minions = minions;
@@ -59,6 +61,7 @@ public class MultiWebCrawler implements WebCrawlerInterface {
 		}
 		minions.execute(new Minion(seed));
 		minions.finish();
+		merger.flush();
 	}
 
 	/**
@@ -91,9 +94,9 @@ public class MultiWebCrawler implements WebCrawlerInterface {
 					}
 				}
 
-				InvertedIndex local = new InvertedIndex();
+				InvertedIndex local = new InvertedIndex(terms);
 				WebCrawlerInterface.sendToIndex(html, current, local);
-				index.addAll(local);
+				merger.add(local);
 			} catch (Exception e) {
 				logger.catching(Level.DEBUG, e);
 			}
@@ -0,0 +1,115 @@
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * The write side of an inverted index, shared by the single-threaded
+ * {@link InvertedIndex} and the thread-safe indexes that the builders, the
+ * crawlers, and the watcher add files to. Each kind of index keeps its words in
+ * its own way, and only gives them out as a {@link FrozenIndex} snapshot.
+ */
+public interface MutableIndexInterface extends InvertedIndexInterface {
+
+	/**
+	 * @return the table that the words of the index are interned in.
+	 */
+	public TermTable getTermTable();
+
+	/**
+	 * Adds a word, it's file, and it's position to the index.
+	 *
+	 * @param word
+	 *            the word to add to the index
+	 * @param file
+	 *            the file that the word is found in
+	 * @param position
+	 *            the position in the file where the word is found
+	 */
+	public void add(String word, String file, Integer position);
+
+	/**
+	 * Adds the words of a document to the index.
+	 *
+	 * @param file
+	 *            the file that the words are found in
+	 * @param words
+	 *            the words of the file, in the order they are found
+	 * @param count
+	 *            the number of words at the start of the array to add
+	 * @param position
+	 *            the position in the file of the first word
+	 * @return the position after the last word that was added
+	 */
+	public int addDocument(String file, String[] words, int count, int position);
+
+	/**
+	 * Adds the contents of another index to this one. The other index should
+	 * not be changed afterwards, since its position lists may be taken over.
+	 *
+	 * @param other
+	 *            the other index.
+	 */
+	public void addAll(InvertedIndex other);
+
+	/**
+	 * Removes every word of a file from the index.
+	 *
+	 * @param path
+	 *            the file or URL of the document to remove.
+	 * @return whether the file was in the index.
+	 */
+	public boolean removeDocument(String path);
+
+	/**
+	 * Replaces the words of a file with the contents of another index.
+	 *
+	 * @param path
+	 *            the file or URL of the document to replace.
+	 * @param document
+	 *            the index of the new version of the document.
+	 */
+	public void replaceDocument(String path, InvertedIndex document);
+
+	/**
+	 * Creates an immutable, read-optimized snapshot of the index.
+	 *
+	 * @return the frozen snapshot of the index.
+	 */
+	public FrozenIndex freeze();
+
+	/**
+	 * Sets the work queue that the index may tidy itself up on in the
+	 * background, once files have been removed from it. Indexes that drop the
+	 * words of a file as soon as it is removed do not need one.
+	 *
+	 * @param queue
+	 *            the work queue to use.
+	 */
+	public default void setCompactor(WorkQueue queue) {
+	}
+
+	/**
+	 * Freezes the index and writes the snapshot onto a file in JSON format.
+	 *
+	 * @param output
+	 *            the file that the index's data will be printed onto.
+	 * @throws IOException
+	 */
+	@Override
+	public default void toJSON(Path output) throws IOException {
+		freeze().toJSON(output);
+	}
+
+	/**
+	 * Freezes the index and writes the snapshot onto a file in binary format.
+	 *
+	 * @param output
+	 *            the file that the binary index will be written to.
+	 * @throws IOException
+	 * @see FrozenIndex#toBinary(Path)
+	 */
+	@Override
+	public default void toBinary(Path output) throws IOException {
+		freeze().toBinary(output);
+	}
+
+}
@@ -0,0 +1,386 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * A compressed, append-only list of the positions a word is found at within a
+ * single file. Positions are kept in increasing order without duplicates, and
+ * each one is stored as the difference from the position before it, written as
+ * a variable-length integer of 7 bits per byte. Since words are added in the
+ * order they are read, most positions only take a single byte, instead of a
+ * boxed Integer and a tree node each. The number of positions and the first
+ * position are kept alongside, so search can read them without decoding.
+ */
+public class PositionList implements Iterable<Integer> {
+
+	/** The number of bytes to allocate for a new list. */
+	private static final int INITIAL_CAPACITY = 4;
+
+	/** The encoded differences between positions. */
+	private byte[] bytes;
+
+	/** The number of bytes in use. */
+	private int length;
+
+	/** The number of positions in the list. */
+	private int size;
+
+	/** The first (and smallest) position in the list. */
+	private int first;
+
+	/** The last (and largest) position in the list. */
+	private int last;
+
+	/**
+	 * The constructor. Instantiates a new, empty position list.
+	 */
+	public PositionList() {
+		bytes = new byte[INITIAL_CAPACITY];
+		length = 0;
+		size = 0;
+		first = 0;
+		last = 0;
+	}
+
+	/**
+	 * Adds a position to the list, if it is not already included. Positions
+	 * greater than the last one are appended directly; any other position
+	 * requires the list to be re-encoded.
+	 *
+	 * @param position
+	 *            the position to add.
+	 */
+	public void add(int position) {
+		if (size == 0 || position > last) {
+			append(position);
+		} else if (!contains(position)) {
+			PositionList single = new PositionList();
+			single.append(position);
+			merge(single);
+		}
+	}
+
+	/**
+	 * Adds every position of another list to this one. If all of the other
+	 * list's positions come after this list's last position, its encoded bytes
+	 * are copied over as they are.
+	 *
+	 * @param other
+	 *            the other position list.
+	 */
+	public void addAll(PositionList other) {
+		if (other.size == 0) {
+			return;
+		}
+
+		if (size == 0) {
+			bytes = Arrays.copyOf(other.bytes, other.length);
+			length = other.length;
+			size = other.size;
+			first = other.first;
+			last = other.last;
+		} else if (other.first > last) {
+			int skip = other.skip(0);
+			ensureCapacity(length + 5 + other.length - skip);
+			writeVarInt(other.first - last);
+			System.arraycopy(other.bytes, skip, bytes, length, other.length - skip);
+			length += other.length - skip;
+			size += other.size;
+			last = other.last;
+		} else {
+			merge(other);
+		}
+	}
+
+	/**
+	 * Adds the given offset to every position in the list. Since each
+	 * position is stored as the difference from the one before it, only the
+	 * first position has to be encoded again.
+	 *
+	 * @param offset
+	 *            the offset to add to each position.
+	 */
+	public void shift(int offset) {
+		if (size == 0 || offset == 0) {
+			return;
+		}
+
+		byte[] old = bytes;
+		int skip = skip(0);
+		int rest = length - skip;
+
+		bytes = new byte[5 + rest];
+		length = 0;
+		writeVarInt(first + offset);
+		System.arraycopy(old, skip, bytes, length, rest);
+		length += rest;
+		first += offset;
+		last += offset;
+	}
+
+	/**
+	 * Checks whether the list includes the given position.
+	 *
+	 * @param position
+	 *            the position to look for.
+	 * @return {@code true} if the position is in the list.
+	 */
+	public boolean contains(int position) {
+		if (size == 0 || position > last) {
+			return false;
+		}
+
+		PrimitiveIterator.OfInt iterator = iterator();
+		while (iterator.hasNext()) {
+			int current = iterator.nextInt();
+
+			if (current >= position) {
+				return current == position;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * @return the number of positions in the list.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return the first (and smallest) position in the list.
+	 */
+	public int first() {
+		if (size == 0) {
+			throw new NoSuchElementException();
+		}
+
+		return first;
+	}
+
+	/**
+	 * @return the last (and largest) position in the list.
+	 */
+	public int last() {
+		if (size == 0) {
+			throw new NoSuchElementException();
+		}
+
+		return last;
+	}
+
+	/**
+	 * Releases any unused capacity, for lists that are done growing.
+	 */
+	public void trimToSize() {
+		if (bytes.length > length) {
+			bytes = Arrays.copyOf(bytes, length);
+		}
+	}
+
+	/**
+	 * Returns an iterator that decodes the positions in increasing order. Use
+	 * {@link PrimitiveIterator.OfInt#nextInt()} to avoid boxing each position.
+	 */
+	@Override
+	public PrimitiveIterator.OfInt iterator() {
+		return new Decoder(ByteBuffer.wrap(bytes), 0, length);
+	}
+
+	/**
+	 * @return the number of bytes used by the encoded positions.
+	 */
+	public int encodedLength() {
+		return length;
+	}
+
+	/**
+	 * @return a read-only view of the encoded positions.
+	 * @see #decode(ByteBuffer, int, int)
+	 */
+	public ByteBuffer encoded() {
+		return ByteBuffer.wrap(bytes, 0, length).asReadOnlyBuffer();
+	}
+
+	/**
+	 * Copies the encoded positions into the given array, so they can be packed
+	 * together with the positions of other lists.
+	 *
+	 * @param destination
+	 *            the array to copy into.
+	 * @param offset
+	 *            the offset in the array to start copying at.
+	 * @return the offset just past the copied bytes.
+	 * @see #decode(ByteBuffer, int, int)
+	 */
+	public int copyTo(byte[] destination, int offset) {
+		System.arraycopy(bytes, 0, destination, offset, length);
+		return offset + length;
+	}
+
+	/**
+	 * Returns an iterator that decodes positions that were packed into a buffer
+	 * by {@link #copyTo(byte[], int)}. The buffer may be on the heap, direct,
+	 * or mapped from a file.
+	 *
+	 * @param bytes
+	 *            the packed positions.
+	 * @param start
+	 *            the offset of the first byte of the list.
+	 * @param end
+	 *            the offset just past the last byte of the list.
+	 * @return an iterator over the positions in increasing order.
+	 */
+	public static PrimitiveIterator.OfInt decode(ByteBuffer bytes, int start, int end) {
+		return new Decoder(bytes, start, end);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder("[");
+		PrimitiveIterator.OfInt iterator = iterator();
+
+		while (iterator.hasNext()) {
+			builder.append(iterator.nextInt());
+
+			if (iterator.hasNext()) {
+				builder.append(", ");
+			}
+		}
+
+		return builder.append("]").toString();
+	}
+
+	/**
+	 * Appends a position that is greater than the last position in the list.
+	 */
+	private void append(int position) {
+		ensureCapacity(length + 5);
+		writeVarInt(size == 0 ? position : position - last);
+		first = size == 0 ? position : first;
+		last = position;
+		size++;
+	}
+
+	/**
+	 * Replaces the contents of this list with the sorted union of this list and
+	 * another one.
+	 */
+	private void merge(PositionList other) {
+		PositionList merged = new PositionList();
+		merged.ensureCapacity(length + other.length);
+
+		PrimitiveIterator.OfInt mine = iterator();
+		PrimitiveIterator.OfInt theirs = other.iterator();
+
+		int a = mine.hasNext() ? mine.nextInt() : 0;
+		int b = theirs.hasNext() ? theirs.nextInt() : 0;
+		boolean hasA = size > 0;
+		boolean hasB = other.size > 0;
+
+		while (hasA || hasB) {
+			if (hasA && (!hasB || a <= b)) {
+				if (a == b && hasB) {
+					hasB = theirs.hasNext();
+					b = hasB ? theirs.nextInt() : 0;
+				}
+
+				merged.append(a);
+				hasA = mine.hasNext();
+				a = hasA ? mine.nextInt() : 0;
+			} else {
+				merged.append(b);
+				hasB = theirs.hasNext();
+				b = hasB ? theirs.nextInt() : 0;
+			}
+		}
+
+		bytes = merged.bytes;
+		length = merged.length;
+		size = merged.size;
+		first = merged.first;
+		last = merged.last;
+	}
+
+	/**
+	 * Grows the byte array so it can hold at least the given number of bytes.
+	 */
+	private void ensureCapacity(int capacity) {
+		if (capacity > bytes.length) {
+			bytes = Arrays.copyOf(bytes, Math.max(capacity, bytes.length + (bytes.length >> 1)));
+		}
+	}
+
+	/**
+	 * Writes a variable-length integer at the end of the list. The capacity
+	 * must already have been ensured.
+	 */
+	private void writeVarInt(int value) {
+		while ((value & ~0x7F) != 0) {
+			bytes[length++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+
+		bytes[length++] = (byte) value;
+	}
+
+	/**
+	 * Returns the offset just past the variable-length integer at the given
+	 * offset.
+	 */
+	private int skip(int offset) {
+		while ((bytes[offset] & 0x80) != 0) {
+			offset++;
+		}
+
+		return offset + 1;
+	}
+
+	/**
+	 * Decodes the positions of a list one at a time. Only uses absolute reads,
+	 * so many decoders can share the same buffer.
+	 */
+	private static class Decoder implements PrimitiveIterator.OfInt {
+
+		private final ByteBuffer bytes;
+		private final int end;
+
+		private int offset;
+		private int position;
+
+		public Decoder(ByteBuffer bytes, int start, int end) {
+			this.bytes = bytes;
+			this.end = end;
+			this.offset = start;
+			this.position = 0;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return offset < end;
+		}
+
+		@Override
+		public int nextInt() {
+			if (offset >= end) {
+				throw new NoSuchElementException();
+			}
+
+			int value = 0;
+			int shift = 0;
+			byte current;
+
+			do {
+				current = bytes.get(offset++);
+				value |= (current & 0x7F) << shift;
+				shift += 7;
+			} while ((current & 0x80) != 0);
+
+			position += value;
+			return position;
+		}
+	}
+}
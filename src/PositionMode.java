@@ -0,0 +1,39 @@
+/**
+ * How much of the positions of each word in each file a frozen index keeps.
+ * Search only needs the number of times a word is found in a file and its
+ * first position, so an index that is only used for serving can drop the
+ * rest of the positions to save memory.
+ */
+public enum PositionMode {
+
+	/**
+	 * Keeps only the number of times each word is found in each file. Results
+	 * with the same count are ordered by path, since the first positions are
+	 * not known.
+	 */
+	NONE,
+
+	/**
+	 * Keeps the number of times each word is found in each file, and the first
+	 * position it is found at.
+	 */
+	FIRST,
+
+	/**
+	 * Keeps every position of each word in each file.
+	 */
+	ALL;
+
+	/**
+	 * Returns the mode that keeps no more than either of the given modes.
+	 *
+	 * @param a
+	 *            a mode.
+	 * @param b
+	 *            another mode.
+	 * @return the mode that keeps the least.
+	 */
+	public static PositionMode least(PositionMode a, PositionMode b) {
+		return a.compareTo(b) <= 0 ? a : b;
+	}
+}
@@ -19,10 +19,17 @@ public class QueryHelper implements QueryHelperInterface {
 	// A map to store query searches to a list of SearchResult objects.
 	private final TreeMap<String, ArrayList<SearchResult>> map;
 	// The inverted index of all words found in all files.
-	private final InvertedIndex index;
+	private final InvertedIndexInterface index;
+	// The most words each prefix of a partial search is expanded into.
+	private final int limit;
 
-	public QueryHelper(InvertedIndex index) {
+	public QueryHelper(InvertedIndexInterface index) {
+		this(index, Integer.MAX_VALUE);
+	}
+
+	public QueryHelper(InvertedIndexInterface index, int limit) {
 		this.index = index;
+		this.limit = limit;
 		map = new TreeMap<>();
 	}
 
@@ -51,7 +58,7 @@ public class QueryHelper implements QueryHelperInterface {
 				if (exact == true) {
 					map.put(line, index.exactSearch(words));
 				} else {
-					map.put(line, index.partialSearch(words));
+					map.put(line, index.partialSearch(words, limit));
 				}
 			}
 		}
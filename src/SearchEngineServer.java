@@ -1,6 +1,5 @@
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.util.ArrayList;
 import java.util.Arrays;
 
 import javax.servlet.ServletException;
@@ -16,7 +15,8 @@ import org.eclipse.jetty.servlet.ServletHolder;
 public class SearchEngineServer {
 
 	public final int port;
-	private final InvertedIndex index;
+	private final InvertedIndexInterface index;
+	private final int limit;
 
 	private final String googleLogo;
 	private final String twoPointZeroLogo;
@@ -25,17 +25,21 @@ public class SearchEngineServer {
 	private boolean exact;
 
 	private static final String COOKIE_NAME = "lastLogin";
+	private static final int RESULTS_PER_PAGE = 50;
 	private String lastLoginTime;
 	private String thisloginTime;
 	private boolean alreadySentNewLoginCookie;
 
 	private boolean christmas;
 
-	private ReadWriteLock lock;
+	public SearchEngineServer(int port, InvertedIndexInterface index) {
+		this(port, index, Integer.MAX_VALUE);
+	}
 
-	public SearchEngineServer(int port, InvertedIndex index) {
+	public SearchEngineServer(int port, InvertedIndexInterface index, int limit) {
 		this.port = port;
 		this.index = index;
+		this.limit = limit;
 
 		this.googleLogo = "https://www.google.com/images/branding/googlelogo/1x/googlelogo_color_272x92dp.png";
 		this.twoPointZeroLogo = "https://smashingboxes.com/media/W1siZiIsIjIwMTUvMTAvMjAvMTAvNDEvNDgvOTE5L2FuZ3VsYXJfMi4wLnBuZyJdXQ/angular%202.0.png?sha=c182c65bfad4aa24";
@@ -48,8 +52,6 @@ public class SearchEngineServer {
 		this.alreadySentNewLoginCookie = false;
 
 		this.christmas = false;
-
-		this.lock = new ReadWriteLock();
 	}
 
 	public void startUp() throws Exception {
@@ -69,11 +71,11 @@ public class SearchEngineServer {
 	@SuppressWarnings("serial")
 	private class SearchEngineServlet extends CookieBaseServlet {
 		private static final String TITLE = "Google 2.0";
-		private ArrayList<SearchResult> results;
+		private SearchResultList results;
 
 		public SearchEngineServlet() {
 			super();
-			results = new ArrayList<>();
+			results = new SearchResultList(0);
 		}
 
 		@Override
@@ -122,13 +124,10 @@ public class SearchEngineServer {
 				String[] words = query.split("\\s+");
 				Arrays.sort(words);
 
-				lock.lockReadOnly();
-				if (exact == true) {
-					results = index.exactSearch(words);
-				} else {
-					results = index.partialSearch(words);
-				}
-				lock.unlockReadOnly();
+				// Only the first page of results is shown, so only the best
+				// results are kept instead of sorting every match, but every
+				// match is still counted.
+				results = index.search(words, exact, limit, RESULTS_PER_PAGE);
 
 				long startTime = System.nanoTime();
 
@@ -144,8 +143,8 @@ public class SearchEngineServer {
 				out.printf("</form>%n");
 
 				long endTime = System.nanoTime();
-				out.printf("<p><font color = \"yellow\">%d results in %d nanoseconds.</font></p>", results.size(),
-						endTime - startTime);
+				out.printf("<p><font color = \"yellow\">Showing %d of %d results in %d nanoseconds.</font></p>",
+						results.size(), results.getTotal(), endTime - startTime);
 
 				if (incognito == false) {
 					makeCookie(request, response, SearchHistoryServlet.COOKIE_NAME, query);
@@ -1,3 +1,7 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.PriorityQueue;
+
 /**
  * A SearchResult class that represents a search result from a query entered
  * into a search engine. Contains the file that the SearchResult is found in and
@@ -76,6 +80,67 @@ public class SearchResult implements Comparable<SearchResult> {
 		this.count += count;
 	}
 
+	/**
+	 * Returns the best k results of a list, in sorted order. If the list has
+	 * more than k results, only k of them are kept at a time in a bounded heap
+	 * whose root is the worst result kept so far, so the rest of the list is
+	 * never sorted.
+	 * 
+	 * @param results
+	 *            the unsorted results.
+	 * @param k
+	 *            the most results to return.
+	 * @return a sorted list of at most k results, and the number of results
+	 *         in the whole list.
+	 */
+	public static SearchResultList top(ArrayList<SearchResult> results, int k) {
+		return top(results, k, results.size());
+	}
+
+	/**
+	 * Returns the best k results of a list, like
+	 * {@link #top(ArrayList, int)}, for a list that only holds some of the
+	 * results of a search, such as the best results of each shard.
+	 * 
+	 * @param results
+	 *            the unsorted results.
+	 * @param k
+	 *            the most results to return.
+	 * @param total
+	 *            the number of files that matched the search.
+	 * @return a sorted list of at most k results, and the given total.
+	 */
+	public static SearchResultList top(ArrayList<SearchResult> results, int k, int total) {
+		if (k < 1) {
+			return new SearchResultList(total);
+		}
+
+		if (results.size() <= k) {
+			Collections.sort(results);
+			return new SearchResultList(results, total);
+		}
+
+		PriorityQueue<SearchResult> heap = new PriorityQueue<>(k, Collections.reverseOrder());
+
+		for (SearchResult result : results) {
+			if (heap.size() < k) {
+				heap.add(result);
+			} else if (result.compareTo(heap.peek()) < 0) {
+				heap.poll();
+				heap.add(result);
+			}
+		}
+
+		SearchResultList top = new SearchResultList(total);
+		top.ensureCapacity(heap.size());
+		while (!heap.isEmpty()) {
+			top.add(heap.poll());
+		}
+
+		Collections.reverse(top);
+		return top;
+	}
+
 	/**
 	 * Sets this object's firstPosition to the given integer.
 	 * 
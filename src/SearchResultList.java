@@ -0,0 +1,49 @@
+import java.util.ArrayList;
+import java.util.Collection;
+
+/**
+ * The best results of a search, in sorted order, along with the number of
+ * files that matched the search in all. Since only the best k results are
+ * kept, the total may be larger than the size of the list.
+ *
+ * @see SearchResult#top(ArrayList, int)
+ */
+public class SearchResultList extends ArrayList<SearchResult> {
+
+	private static final long serialVersionUID = 1L;
+
+	/** The number of files that matched the search. */
+	private final int total;
+
+	/**
+	 * The constructor. Instantiates a new, empty list of results.
+	 *
+	 * @param total
+	 *            the number of files that matched the search.
+	 */
+	public SearchResultList(int total) {
+		super();
+		this.total = total;
+	}
+
+	/**
+	 * The constructor. Instantiates a new list with the given results.
+	 *
+	 * @param results
+	 *            the results that were kept, in sorted order.
+	 * @param total
+	 *            the number of files that matched the search.
+	 */
+	public SearchResultList(Collection<SearchResult> results, int total) {
+		super(results);
+		this.total = total;
+	}
+
+	/**
+	 * @return the number of files that matched the search, including the ones
+	 *         whose results were not kept.
+	 */
+	public int getTotal() {
+		return total;
+	}
+}
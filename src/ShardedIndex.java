@@ -0,0 +1,192 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * A read-only index made of several shards, each holding a different set of
+ * files. Since no file is in more than one shard, a query is searched in every
+ * shard at the same time, and the best results of each shard are merged into
+ * the best results overall, without having to combine counts across shards.
+ *
+ * The shards are searched on the common fork-join pool rather than on a
+ * {@link WorkQueue}, since queries are themselves run by the work queue's
+ * threads in {@link MultiQueryHelper}, and waiting on the same queue from one
+ * of its own threads could block it.
+ */
+public class ShardedIndex implements InvertedIndexInterface {
+
+	/** The frozen shards, each holding a different set of files. */
+	private final FrozenIndex[] shards;
+
+	/**
+	 * The constructor.
+	 *
+	 * @param shards
+	 *            the frozen shards, each holding a different set of files.
+	 */
+	public ShardedIndex(FrozenIndex[] shards) {
+		this.shards = shards;
+	}
+
+	/**
+	 * @return the number of shards.
+	 */
+	public int getShardCount() {
+		return shards.length;
+	}
+
+	/**
+	 * Returns a copy of the index whose shards keep no more than the given
+	 * amount of the positions.
+	 *
+	 * @param mode
+	 *            how much of the positions to keep.
+	 * @return the copy of the index.
+	 * @see FrozenIndex#withPositions(PositionMode)
+	 */
+	public ShardedIndex withPositions(PositionMode mode) {
+		FrozenIndex[] copies = new FrozenIndex[shards.length];
+
+		for (int i = 0; i < shards.length; i++) {
+			copies[i] = shards[i].withPositions(mode);
+		}
+
+		return new ShardedIndex(copies);
+	}
+
+	/**
+	 * Copies the postings and positions of every shard outside of the heap.
+	 *
+	 * @return the copy of the index held in direct buffers.
+	 * @see FrozenIndex#offHeap()
+	 */
+	public ShardedIndex offHeap() {
+		FrozenIndex[] copies = new FrozenIndex[shards.length];
+
+		for (int i = 0; i < shards.length; i++) {
+			copies[i] = shards[i].offHeap();
+		}
+
+		return new ShardedIndex(copies);
+	}
+
+	/**
+	 * Searches every shard for the query at the same time, and merges the
+	 * best k results of each shard into the best k results overall. With a
+	 * limit, each shard expands a prefix into the first matching words that it
+	 * holds itself, which may differ from the first words of the whole index.
+	 *
+	 * @param query
+	 *            an array of search queries or a query.
+	 * @param exact
+	 *            whether to search for exact words instead of prefixes.
+	 * @param limit
+	 *            the most words to expand each prefix into.
+	 * @param k
+	 *            the most results to return.
+	 * @return a sorted list of at most k SearchResult objects.
+	 */
+	@Override
+	public SearchResultList search(String[] query, boolean exact, int limit, int k) {
+		// Exact words that no shard's Bloom filter knows of are missing, so
+		// the search does not have to be handed to the other threads.
+		if (exact && !FrozenIndex.mightContainAny(shards, query)) {
+			return new SearchResultList(0);
+		}
+
+		return search(shards, query, exact, limit, k);
+	}
+
+	/**
+	 * Searches every one of the given shards for the query at the same time.
+	 * The first shard is searched by the calling thread, while the others are
+	 * searched on the common fork-join pool.
+	 *
+	 * @param shards
+	 *            the shards, each holding a different set of files.
+	 * @param query
+	 *            an array of search queries or a query.
+	 * @param exact
+	 *            whether to search for exact words instead of prefixes.
+	 * @param limit
+	 *            the most words to expand each prefix into.
+	 * @param k
+	 *            the most results to return.
+	 * @return a sorted list of at most k SearchResult objects.
+	 */
+	public static SearchResultList search(InvertedIndexInterface[] shards, String[] query, boolean exact,
+			int limit, int k) {
+		ArrayList<Minion> minions = new ArrayList<>();
+
+		for (int i = 1; i < shards.length; i++) {
+			Minion minion = new Minion(shards[i], query, exact, limit, k);
+			minion.fork();
+			minions.add(minion);
+		}
+
+		SearchResultList first = shards[0].search(query, exact, limit, k);
+		ArrayList<SearchResult> list = new ArrayList<>(first);
+		int total = first.getTotal();
+
+		// The shards hold different files, so their totals add up.
+		for (Minion minion : minions) {
+			SearchResultList results = minion.join();
+			list.addAll(results);
+			total += results.getTotal();
+		}
+
+		return SearchResult.top(list, k, total);
+	}
+
+	/**
+	 * Merges the shards and writes them onto a file in JSON format.
+	 *
+	 * @param output
+	 *            the file that the index's data will be printed onto.
+	 * @throws IOException
+	 */
+	@Override
+	public void toJSON(Path output) throws IOException {
+		FrozenIndex.merge(shards).toJSON(output);
+	}
+
+	/**
+	 * Merges the shards and writes them onto a file in binary format.
+	 *
+	 * @param output
+	 *            the file that the binary index will be written to.
+	 * @throws IOException
+	 */
+	@Override
+	public void toBinary(Path output) throws IOException {
+		FrozenIndex.merge(shards).toBinary(output);
+	}
+
+	/**
+	 * Searches a single shard for the query.
+	 */
+	private static class Minion extends RecursiveTask<SearchResultList> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final InvertedIndexInterface shard;
+		private final String[] query;
+		private final boolean exact;
+		private final int limit;
+		private final int k;
+
+		public Minion(InvertedIndexInterface shard, String[] query, boolean exact, int limit, int k) {
+			this.shard = shard;
+			this.query = query;
+			this.exact = exact;
+			this.limit = limit;
+			this.k = k;
+		}
+
+		@Override
+		protected SearchResultList compute() {
+			return shard.search(query, exact, limit, k);
+		}
+	}
+}
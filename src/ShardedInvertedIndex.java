@@ -0,0 +1,228 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A thread-safe inverted index that splits its files across several
+ * {@link MultiInvertedIndex} shards, each with its own lock. Every file is
+ * kept in the shard chosen for its path by
+ * {@link InvertedIndex#partitionOf(String, int)}, so threads that add
+ * different files mostly lock different shards instead of waiting on one
+ * another, and a query is searched in every shard at the same time.
+ */
+public class ShardedInvertedIndex implements MutableIndexInterface {
+
+	private static final Logger logger = LogManager.getLogger();
+
+	/** The table that the words of every shard are interned in. */
+	private final TermTable terms;
+
+	/** The shards, each holding a different set of files. */
+	private final MultiInvertedIndex[] shards;
+
+	/**
+	 * The constructor. Instantiates a new index with the given number of
+	 * empty shards.
+	 *
+	 * @param shards
+	 *            the number of shards.
+	 */
+	public ShardedInvertedIndex(int shards) {
+		this(shards, PositionMode.ALL);
+	}
+
+	/**
+	 * The constructor. Instantiates a new index with the given number of
+	 * empty shards, which only keep the given amount of the positions.
+	 *
+	 * @param shards
+	 *            the number of shards.
+	 * @param positions
+	 *            how much of the positions to keep.
+	 */
+	public ShardedInvertedIndex(int shards, PositionMode positions) {
+		this.terms = new TermTable();
+		this.shards = new MultiInvertedIndex[Math.max(1, shards)];
+
+		for (int i = 0; i < this.shards.length; i++) {
+			this.shards[i] = new MultiInvertedIndex(terms, positions);
+		}
+	}
+
+	/**
+	 * @return the table that the words of every shard are interned in.
+	 */
+	@Override
+	public TermTable getTermTable() {
+		return terms;
+	}
+
+	/**
+	 * Adds a word, it's file, and it's position to the shard of the file.
+	 *
+	 * @param word
+	 *            the word to add to the index
+	 * @param file
+	 *            the file that the word is found in
+	 * @param position
+	 *            the position in the file where the word is found
+	 */
+	@Override
+	public void add(String word, String file, Integer position) {
+		shards[InvertedIndex.partitionOf(file, shards.length)].add(word, file, position);
+	}
+
+	/**
+	 * Adds the words of a document to the shard of the file.
+	 *
+	 * @param file
+	 *            the file that the words are found in
+	 * @param words
+	 *            the words of the file, in the order they are found
+	 * @param count
+	 *            the number of words at the start of the array to add
+	 * @param position
+	 *            the position in the file of the first word
+	 * @return the position after the last word that was added
+	 */
+	@Override
+	public int addDocument(String file, String[] words, int count, int position) {
+		return shards[InvertedIndex.partitionOf(file, shards.length)].addDocument(file, words, count, position);
+	}
+
+	/**
+	 * Splits the other index by file, and adds each part to its shard. Only
+	 * the shards that get files are locked, one at a time.
+	 *
+	 * @param other
+	 *            the other index.
+	 */
+	@Override
+	public void addAll(InvertedIndex other) {
+		InvertedIndex[] parts = other.partition(shards.length);
+
+		for (int i = 0; i < shards.length; i++) {
+			if (parts[i] != null) {
+				shards[i].addAll(parts[i]);
+			}
+		}
+	}
+
+	/**
+	 * Removes a file from its shard.
+	 *
+	 * @param path
+	 *            the file or URL of the document to remove.
+	 * @return whether the file was in the index.
+	 */
+	@Override
+	public boolean removeDocument(String path) {
+		return shards[InvertedIndex.partitionOf(path, shards.length)].removeDocument(path);
+	}
+
+	/**
+	 * Replaces the words of a file in its shard. The other index is split by
+	 * file like in {@link #addAll(InvertedIndex)}, and any files of it that
+	 * belong to other shards are added to them.
+	 *
+	 * @param path
+	 *            the file or URL of the document to replace.
+	 * @param document
+	 *            the index of the new version of the document.
+	 */
+	@Override
+	public void replaceDocument(String path, InvertedIndex document) {
+		InvertedIndex[] parts = document.partition(shards.length);
+		int owner = InvertedIndex.partitionOf(path, shards.length);
+
+		for (int i = 0; i < shards.length; i++) {
+			if (i == owner) {
+				shards[i].replaceDocument(path, parts[i] != null ? parts[i] : new InvertedIndex(terms));
+			} else if (parts[i] != null) {
+				shards[i].addAll(parts[i]);
+			}
+		}
+	}
+
+	/**
+	 * Sets the work queue that every shard compacts its segments on.
+	 *
+	 * @param queue
+	 *            the work queue to compact segments on.
+	 */
+	@Override
+	public void setCompactor(WorkQueue queue) {
+		for (MultiInvertedIndex shard : shards) {
+			shard.setCompactor(queue);
+		}
+	}
+
+	/**
+	 * Compacts the segments of every shard, one shard at a time.
+	 */
+	public void compact() {
+		for (MultiInvertedIndex shard : shards) {
+			shard.compact();
+		}
+	}
+
+	/**
+	 * Creates an immutable snapshot of the whole index, by freezing each shard
+	 * and merging the snapshots.
+	 *
+	 * @return the frozen snapshot of the index.
+	 * @see #freezeShards()
+	 */
+	@Override
+	public FrozenIndex freeze() {
+		return FrozenIndex.merge(freezeEach());
+	}
+
+	/**
+	 * Freezes each shard on its own, keeping them apart so that queries can
+	 * still be searched in every shard at the same time.
+	 *
+	 * @return the sharded snapshot of the index.
+	 */
+	public ShardedIndex freezeShards() {
+		return new ShardedIndex(freezeEach());
+	}
+
+	/**
+	 * Freezes each shard, one after the other.
+	 */
+	private FrozenIndex[] freezeEach() {
+		logger.debug("freezeEach(): Freezing {} shards.", shards.length);
+		FrozenIndex[] frozen = new FrozenIndex[shards.length];
+
+		for (int i = 0; i < shards.length; i++) {
+			frozen[i] = shards[i].freeze();
+		}
+
+		return frozen;
+	}
+
+	/**
+	 * Searches every shard for the query at the same time, and returns the
+	 * best k results overall.
+	 *
+	 * @param query
+	 *            an array of search queries or a query.
+	 * @param exact
+	 *            whether to search for exact words instead of prefixes.
+	 * @param limit
+	 *            the most words to expand each prefix into.
+	 * @param k
+	 *            the most results to return.
+	 * @return a sorted list of at most k SearchResult objects.
+	 * @see ShardedIndex#search(InvertedIndexInterface[], String[], boolean,
+	 *      int, int)
+	 */
+	@Override
+	public SearchResultList search(String[] query, boolean exact, int limit, int k) {
+		logger.debug("search(): Searching {} shards for {}.", shards.length, Arrays.toString(query));
+		return ShardedIndex.search(shards, query, exact, limit, k);
+	}
+}
@@ -0,0 +1,166 @@
+import java.util.Arrays;
+
+/**
+ * A compact, read-only prefix tree (radix trie) over the sorted words of a
+ * {@link FrozenIndex}. Each node stands for a prefix shared by a contiguous
+ * range of word ordinals, so the range of words that start with a prefix is
+ * found by walking at most one node per character of the prefix, without
+ * comparing against or scanning past any other words.
+ *
+ * Chains of nodes with a single child are collapsed into one edge, so the
+ * tree has fewer than two nodes per word. Edge labels are not stored: all of
+ * the words under a node share its prefix, so the label is read from the first
+ * word of the node's range.
+ */
+public class TermDictionary {
+
+	/** The words of the index, in sorted order. */
+	private final String[] terms;
+
+	/** The length of the prefix each node stands for. */
+	private int[] depths;
+
+	/** The first word ordinal under each node. */
+	private int[] lows;
+
+	/** The word ordinal just past the last word under each node. */
+	private int[] highs;
+
+	/**
+	 * The first edge of each node, plus one final entry for the end of the
+	 * last node's edges. Edges are numbered so that each node's edges are
+	 * contiguous and sorted by their first character.
+	 */
+	private int[] edgeStarts;
+
+	/** The first character of the label of each edge. */
+	private char[] labels;
+
+	/** The node each edge leads to. */
+	private int[] targets;
+
+	/**
+	 * The constructor. Builds the tree over the given words breadth-first. A
+	 * tree over distinct words has fewer than two nodes per word, so the
+	 * arrays are sized for that up front and trimmed afterwards.
+	 *
+	 * @param terms
+	 *            the distinct words of the index, in sorted order.
+	 */
+	public TermDictionary(String[] terms) {
+		this.terms = terms;
+
+		int capacity = 2 * terms.length + 1;
+		depths = new int[capacity];
+		lows = new int[capacity];
+		highs = new int[capacity];
+		edgeStarts = new int[capacity + 1];
+		labels = new char[capacity];
+		targets = new int[capacity];
+
+		// The root stands for the empty prefix, shared by every word.
+		int nodes = 1;
+		int edges = 0;
+		depths[0] = 0;
+		lows[0] = 0;
+		highs[0] = terms.length;
+
+		// Children are numbered as their parents are visited, so visiting the
+		// nodes in order is a breadth-first traversal.
+		for (int node = 0; node < nodes; node++) {
+			edgeStarts[node] = edges;
+
+			int depth = depths[node];
+			int low = lows[node];
+
+			// A word that is exactly this node's prefix sorts first, and has
+			// no child of its own.
+			if (low < highs[node] && terms[low].length() == depth) {
+				low++;
+			}
+
+			while (low < highs[node]) {
+				char label = terms[low].charAt(depth);
+				int high = low + 1;
+
+				while (high < highs[node] && terms[high].charAt(depth) == label) {
+					high++;
+				}
+
+				depths[nodes] = commonPrefix(terms[low], terms[high - 1]);
+				lows[nodes] = low;
+				highs[nodes] = high;
+				labels[edges] = label;
+				targets[edges] = nodes;
+
+				nodes++;
+				edges++;
+				low = high;
+			}
+		}
+
+		edgeStarts[nodes] = edges;
+
+		depths = Arrays.copyOf(depths, nodes);
+		lows = Arrays.copyOf(lows, nodes);
+		highs = Arrays.copyOf(highs, nodes);
+		edgeStarts = Arrays.copyOf(edgeStarts, nodes + 1);
+		labels = Arrays.copyOf(labels, edges);
+		targets = Arrays.copyOf(targets, edges);
+	}
+
+	/**
+	 * Finds the range of word ordinals that start with the given prefix, in
+	 * time proportional to the length of the prefix.
+	 *
+	 * @param prefix
+	 *            the prefix to look for.
+	 * @return the first matching ordinal and the ordinal just past the last
+	 *         one, which are equal if no word starts with the prefix.
+	 */
+	public int[] prefixRange(String prefix) {
+		int node = 0;
+		int depth = 0;
+
+		while (depth < prefix.length()) {
+			int edge = Arrays.binarySearch(labels, edgeStarts[node], edgeStarts[node + 1], prefix.charAt(depth));
+
+			if (edge < 0) {
+				return new int[] { 0, 0 };
+			}
+
+			node = targets[edge];
+
+			// Checks the rest of the edge's label, up to the end of the prefix.
+			int end = Math.min(depths[node], prefix.length());
+			if (!terms[lows[node]].regionMatches(depth + 1, prefix, depth + 1, end - depth - 1)) {
+				return new int[] { 0, 0 };
+			}
+
+			depth = end;
+		}
+
+		return new int[] { lows[node], highs[node] };
+	}
+
+	/**
+	 * @return the number of nodes in the tree.
+	 */
+	public int size() {
+		return depths.length;
+	}
+
+	/**
+	 * Returns the length of the longest common prefix of two words.
+	 */
+	private static int commonPrefix(String a, String b) {
+		int length = Math.min(a.length(), b.length());
+		int i = 0;
+
+		while (i < length && a.charAt(i) == b.charAt(i)) {
+			i++;
+		}
+
+		return i;
+	}
+}
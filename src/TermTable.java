@@ -0,0 +1,74 @@
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A thread-safe symbol table that interns the words of an index. Every
+ * distinct word is stored as a single String instance, so local indexes that
+ * share a table also share their words, instead of each one keeping its own
+ * copy of every popular word until it is merged. Neither looking up nor adding
+ * a word locks.
+ *
+ * Words are never removed from the table, since it does not know which words
+ * the indexes that share it still hold. An index that is kept up to date with
+ * -watch therefore keeps every word it has ever seen in its table, even once
+ * the files that had it are changed or deleted. This only costs the memory of
+ * the words themselves, and it is bounded by the vocabulary of the files that
+ * are indexed over the life of the process.
+ *
+ * Words are interned as Strings rather than given int IDs. The indexes keep
+ * their words in sorted maps and freeze them into sorted arrays for prefix
+ * search, and IDs handed out in the order words are first seen would not sort
+ * with them, so every comparison would have to go back to the word anyway.
+ * An interned String already compares by reference first through
+ * {@link #ORDER}, and a String is shared as cheaply as an ID would be. The
+ * {@link Tokenizer} keeps its own small cache instead of using the table,
+ * since the table can only be searched once a String has been made.
+ */
+public class TermTable {
+
+	/**
+	 * Sorts words in their natural order, but finds two instances of the same
+	 * interned word equal without comparing their characters. Sorted maps
+	 * whose words are interned use this order to speed up lookups and merges.
+	 */
+	public static final Comparator<String> ORDER = new Comparator<String>() {
+		@Override
+		public int compare(String a, String b) {
+			return a == b ? 0 : a.compareTo(b);
+		}
+	};
+
+	/**
+	 * The interned instance of each word, keyed by the word.
+	 */
+	private final ConcurrentHashMap<String, String> symbols;
+
+	/**
+	 * The constructor. Instantiates a new, empty term table.
+	 */
+	public TermTable() {
+		symbols = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * Returns the interned instance of the given word, adding the word to the
+	 * table if it has not been seen before.
+	 *
+	 * @param term
+	 *            the word to intern.
+	 * @return the single instance of the word that is shared by the table.
+	 */
+	public String intern(String term) {
+		String symbol = symbols.get(term);
+
+		if (symbol == null) {
+			symbol = symbols.putIfAbsent(term, term);
+
+			if (symbol == null) {
+				symbol = term;
+			}
+		}
+
+		return symbol;
+	}
+}
@@ -0,0 +1,291 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads the words of a UTF-8 text file with a {@link Tokenizer}, straight
+ * from its bytes, without decoding the file into lines first. Small files are
+ * read whole into a buffer. Larger files are memory-mapped a window at a time,
+ * so their bytes are tokenized where the operating system has already cached
+ * them, without being copied onto the heap. A word that is cut off by the end
+ * of a window is read again at the start of the next one.
+ *
+ * A reader may also read just a range of a file, so that the parts of a large
+ * file can be read at the same time by different threads. The ranges should
+ * be split between words by {@link #split(Path, int)}.
+ *
+ * Files compressed with gzip, whose names end with ".gz", are decompressed as
+ * they are read, a buffer at a time, without writing the text anywhere. Text
+ * may also be read from any other stream the same way. A stream can only be
+ * read from the start, so a compressed file cannot be read a range at a time.
+ *
+ * A file that is truncated while one of its windows is mapped makes the JVM
+ * throw an error when the missing bytes are read, which is turned into an
+ * exception, so that a file being written while it is read does not stop the
+ * thread reading it.
+ */
+public class TextFileReader implements Closeable {
+
+	/** Files smaller than this are read instead of memory-mapped. */
+	private static final int MAP_THRESHOLD = 1 << 20;
+
+	/** The number of bytes of a file to map at once. */
+	private static final int WINDOW = 1 << 23;
+
+	/** The number of bytes of a stream to read at once. */
+	private static final int STREAM_BUFFER = 1 << 16;
+
+	/** The file being read, or null if reading from a stream. */
+	private final FileChannel channel;
+
+	/** The stream being read, or null if reading from a file. */
+	private final InputStream stream;
+
+	/**
+	 * The bytes of the stream that have been read but not tokenized, or null
+	 * once the whole stream has been read.
+	 */
+	private ByteBuffer buffer;
+
+	/** The offset in the file of the end of the range to read. */
+	private final long size;
+
+	/** The offset in the file of the next byte to read. */
+	private long offset;
+
+	/** The number of bytes to map for the next window. */
+	private int window;
+
+	/**
+	 * The constructor. Opens the file.
+	 *
+	 * @param file
+	 *            the text file to read.
+	 * @throws IOException
+	 */
+	public TextFileReader(Path file) throws IOException {
+		if (isCompressed(file)) {
+			channel = null;
+			stream = new GZIPInputStream(Files.newInputStream(file), STREAM_BUFFER);
+			buffer = ByteBuffer.allocate(STREAM_BUFFER);
+		} else {
+			channel = FileChannel.open(file, StandardOpenOption.READ);
+			stream = null;
+			buffer = null;
+		}
+
+		size = channel != null ? channel.size() : 0;
+		offset = 0;
+		window = WINDOW;
+	}
+
+	/**
+	 * The constructor. Reads UTF-8 text from a stream, such as one that
+	 * decompresses a file that has already been read into memory. The stream
+	 * is closed along with the reader.
+	 *
+	 * @param stream
+	 *            the stream to read.
+	 */
+	public TextFileReader(InputStream stream) {
+		this.channel = null;
+		this.stream = stream;
+		this.buffer = ByteBuffer.allocate(STREAM_BUFFER);
+		this.size = 0;
+		this.offset = 0;
+		this.window = WINDOW;
+	}
+
+	/**
+	 * The constructor. Opens the file to read only the given range of it,
+	 * which must not be compressed.
+	 *
+	 * @param file
+	 *            the text file to read.
+	 * @param start
+	 *            the offset of the first byte to read.
+	 * @param end
+	 *            the offset just past the last byte to read.
+	 * @throws IOException
+	 */
+	public TextFileReader(Path file, long start, long end) throws IOException {
+		if (isCompressed(file)) {
+			throw new IOException("Unable to read a range of compressed file " + file);
+		}
+
+		channel = FileChannel.open(file, StandardOpenOption.READ);
+		stream = null;
+		buffer = null;
+		size = Math.min(end, channel.size());
+		offset = start;
+		window = WINDOW;
+	}
+
+	/**
+	 * Splits a file into about the given number of ranges of about the same
+	 * size, each of which starts and ends between words, at whitespace.
+	 *
+	 * @param file
+	 *            the text file to split.
+	 * @param parts
+	 *            the number of ranges to split the file into.
+	 * @return the offsets of the ranges, with the start of each range
+	 *         followed by the end of the last one.
+	 * @throws IOException
+	 */
+	public static long[] split(Path file, int parts) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = channel.size();
+			long[] bounds = new long[parts + 1];
+			ByteBuffer buffer = ByteBuffer.allocate(4096);
+			int count = 1;
+
+			for (int i = 1; i < parts; i++) {
+				long offset = Math.max(bounds[count - 1], size * i / parts);
+
+				// Moves the bound forward to the next whitespace.
+				search: while (offset < size) {
+					buffer.clear();
+					int read = channel.read(buffer, offset);
+
+					if (read <= 0) {
+						offset = size;
+						break;
+					}
+
+					for (int j = 0; j < read; j++, offset++) {
+						if (Tokenizer.isSpace((char) buffer.get(j))) {
+							break search;
+						}
+					}
+				}
+
+				if (offset > bounds[count - 1] && offset < size) {
+					bounds[count++] = offset;
+				}
+			}
+
+			bounds[count++] = size;
+			return Arrays.copyOf(bounds, count);
+		}
+	}
+
+	/**
+	 * Reads the words of the next part of the file into the tokenizer's
+	 * buffer, after the words that are already in it.
+	 *
+	 * @param tokenizer
+	 *            the tokenizer to read the words with.
+	 * @return false if the whole file has already been read, or true if more
+	 *         of it was read, which may not have had any words.
+	 * @throws IOException
+	 *             if the file cannot be read or is not valid UTF-8.
+	 */
+	public boolean read(Tokenizer tokenizer) throws IOException {
+		if (stream != null) {
+			return readStream(tokenizer);
+		}
+
+		if (offset >= size) {
+			return false;
+		}
+
+		if (size - offset < MAP_THRESHOLD) {
+			ByteBuffer buffer = ByteBuffer.allocate((int) (size - offset));
+
+			while (buffer.hasRemaining() && channel.read(buffer, offset + buffer.position()) >= 0) {
+				continue;
+			}
+
+			buffer.flip();
+			tokenizer.tokenize(buffer, true);
+			offset = size;
+			return true;
+		}
+
+		long length = Math.min(window, size - offset);
+		boolean last = offset + length == size;
+		ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+
+		try {
+			tokenizer.tokenize(buffer, last);
+		} catch (InternalError e) {
+			// Thrown when the mapped part of the file is truncated under us.
+			throw new IOException("The file was truncated while it was read.", e);
+		}
+
+		// A single word that fills the window is read with a larger one.
+		if (buffer.position() == 0 && !last) {
+			window = (int) Math.min(Integer.MAX_VALUE, (long) window * 2);
+		}
+
+		offset += buffer.position();
+		return true;
+	}
+
+	/**
+	 * Reads the words of the next buffer of the stream, after any word that
+	 * was cut off by the end of the last one.
+	 */
+	private boolean readStream(Tokenizer tokenizer) throws IOException {
+		if (buffer == null) {
+			return false;
+		}
+
+		// A single word that fills the buffer is read with a larger one.
+		if (!buffer.hasRemaining()) {
+			buffer.flip();
+			buffer = ByteBuffer.allocate(buffer.capacity() * 2).put(buffer);
+		}
+
+		int read = 0;
+		while (buffer.hasRemaining()
+				&& (read = stream.read(buffer.array(), buffer.position(), buffer.remaining())) >= 0) {
+			buffer.position(buffer.position() + read);
+		}
+
+		boolean last = read < 0;
+		buffer.flip();
+		tokenizer.tokenize(buffer, last);
+
+		if (last) {
+			buffer = null;
+		} else {
+			buffer.compact();
+		}
+
+		return true;
+	}
+
+	/**
+	 * Checks whether a file is compressed with gzip, by its name.
+	 *
+	 * @param file
+	 *            the file.
+	 * @return whether the file's name ends with ".gz".
+	 */
+	public static boolean isCompressed(Path file) {
+		return file.getFileName().toString().toLowerCase().endsWith(".gz");
+	}
+
+	/**
+	 * Closes the file or stream.
+	 *
+	 * @throws IOException
+	 */
+	@Override
+	public void close() throws IOException {
+		if (channel != null) {
+			channel.close();
+		} else {
+			stream.close();
+		}
+	}
+}
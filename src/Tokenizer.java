@@ -0,0 +1,257 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.util.Arrays;
+
+/**
+ * Splits UTF-8 text into the words of an index in a single pass over its
+ * bytes, giving the same words as cleaning the text with
+ * {@link InvertedIndexBuilderInterface#clean(String)} and splitting it on
+ * whitespace, but without decoding it, using a regular expression, or making
+ * a copy of it for each step. Since whitespace, punctuation, and ASCII letters
+ * are single bytes in UTF-8, and every byte of any other character is outside
+ * of ASCII, letters are lower-cased and punctuation is dropped as each byte is
+ * read, and the words are collected into a buffer that is reused for each
+ * piece of text.
+ *
+ * Each word is built in a reusable character buffer, and then looked up in a
+ * small cache of the words seen most recently before a String is created for
+ * it, so the common words of a file are found without creating any objects.
+ * Only words with characters outside of ASCII are decoded, and they are
+ * lower-cased with {@link String#toLowerCase()}, so that they follow the same
+ * rules as clean.
+ *
+ * A tokenizer is not thread-safe; each thread should use its own.
+ */
+public class Tokenizer {
+
+	/** The number of words in the cache, which must be a power of two. */
+	private static final int CACHE_SIZE = 4096;
+
+	/** The most recently created word with each hash, by hash. */
+	private final String[] cache;
+
+	/** The characters of the word being read. */
+	private char[] word;
+
+	/** The number of characters of the word being read. */
+	private int length;
+
+	/** The words that have been read since the buffer was last cleared. */
+	private String[] words;
+
+	/** The number of words that have been read. */
+	private int size;
+
+	/** Decodes the words of UTF-8 text that are not all ASCII. */
+	private final CharsetDecoder decoder;
+
+	/**
+	 * The constructor. Instantiates a new tokenizer with an empty buffer.
+	 */
+	public Tokenizer() {
+		cache = new String[CACHE_SIZE];
+		word = new char[32];
+		length = 0;
+		words = new String[64];
+		size = 0;
+		decoder = Charset.forName("UTF-8").newDecoder();
+	}
+
+	/**
+	 * Reads the words of the given UTF-8 text, from its position up to its
+	 * limit, and adds them to the end of the buffer. Unless the text is the
+	 * last of its file, a word that runs up to the limit may be cut off, so it
+	 * is not read; the text's position is left at the start of that word, and
+	 * it should be read again along with the text that follows it. Otherwise,
+	 * the position is moved to the limit.
+	 *
+	 * @param text
+	 *            the UTF-8 text to split into words.
+	 * @param last
+	 *            whether the text runs to the end of its file.
+	 * @return the number of words that were added.
+	 * @throws CharacterCodingException
+	 *             if a word is not valid UTF-8.
+	 */
+	public int tokenize(ByteBuffer text, boolean last) throws CharacterCodingException {
+		int before = size;
+		int end = text.limit();
+		int i = text.position();
+
+		while (i < end) {
+			while (i < end && isSpace((char) text.get(i))) {
+				i++;
+			}
+
+			int start = i;
+			boolean ascii = true;
+			length = 0;
+
+			while (i < end) {
+				byte b = text.get(i);
+
+				if (b < 0) {
+					ascii = false;
+				} else if (isSpace((char) b)) {
+					break;
+				} else if (!isPunctuation((char) b)) {
+					append(b >= 'A' && b <= 'Z' ? (char) (b + ('a' - 'A')) : (char) b);
+				}
+
+				i++;
+			}
+
+			if (i == end && !last && start < end) {
+				text.position(start);
+				return size - before;
+			}
+
+			if (!ascii) {
+				ByteBuffer bytes = text.duplicate();
+				bytes.limit(i);
+				bytes.position(start);
+
+				String lower = decoder.decode(bytes).toString().toLowerCase();
+				length = 0;
+
+				for (int j = 0; j < lower.length(); j++) {
+					if (!isPunctuation(lower.charAt(j))) {
+						append(lower.charAt(j));
+					}
+				}
+			}
+
+			add();
+		}
+
+		text.position(end);
+		return size - before;
+	}
+
+	/**
+	 * @return the number of words in the buffer.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @param index
+	 *            the place of a word in the buffer.
+	 * @return the word.
+	 */
+	public String get(int index) {
+		return words[index];
+	}
+
+	/**
+	 * Returns the array that holds the buffer, whose first {@link #size()}
+	 * elements are the words that have been read. The array is reused for the
+	 * next words once the buffer is cleared, so it should not be kept.
+	 *
+	 * @return the array of words.
+	 */
+	public String[] words() {
+		return words;
+	}
+
+	/**
+	 * Empties the buffer, keeping its capacity for the next words.
+	 */
+	public void clear() {
+		Arrays.fill(words, 0, size, null);
+		size = 0;
+	}
+
+	/**
+	 * Adds a character to the end of the word being read.
+	 */
+	private void append(char c) {
+		if (length == word.length) {
+			word = Arrays.copyOf(word, length * 2);
+		}
+
+		word[length++] = c;
+	}
+
+	/**
+	 * Trims the word that has been read like {@link String#trim()}, and adds
+	 * it to the buffer unless it is empty, reusing the cached String of the
+	 * word if there is one.
+	 */
+	private void add() {
+		int start = 0;
+		int end = length;
+
+		while (start < end && word[start] <= ' ') {
+			start++;
+		}
+
+		while (end > start && word[end - 1] <= ' ') {
+			end--;
+		}
+
+		if (start == end) {
+			return;
+		}
+
+		int hash = 0;
+		for (int i = start; i < end; i++) {
+			hash = 31 * hash + word[i];
+		}
+
+		int slot = (hash ^ (hash >>> 16)) & (CACHE_SIZE - 1);
+		String cached = cache[slot];
+
+		if (cached == null || !matches(cached, start, end)) {
+			cached = new String(word, start, end - start);
+			cache[slot] = cached;
+		}
+
+		if (size == words.length) {
+			words = Arrays.copyOf(words, size * 2);
+		}
+
+		words[size++] = cached;
+	}
+
+	/**
+	 * Checks whether a String has the same characters as part of the word
+	 * that has been read.
+	 */
+	private boolean matches(String string, int start, int end) {
+		if (string.length() != end - start) {
+			return false;
+		}
+
+		for (int i = start; i < end; i++) {
+			if (string.charAt(i - start) != word[i]) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Checks whether a character is whitespace, as matched by "\s" in a
+	 * regular expression.
+	 *
+	 * @param c
+	 *            the character.
+	 * @return whether the character is whitespace.
+	 */
+	public static boolean isSpace(char c) {
+		return c == ' ' || (c >= '\t' && c <= '\r');
+	}
+
+	/**
+	 * Checks whether a character is punctuation, as matched by "\p{Punct}" in
+	 * a regular expression, which only matches ASCII punctuation.
+	 */
+	private static boolean isPunctuation(char c) {
+		return (c >= '!' && c <= '/') || (c >= ':' && c <= '@') || (c >= '[' && c <= '`') || (c >= '{' && c <= '~');
+	}
+}
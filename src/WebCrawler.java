@@ -12,7 +12,7 @@ import java.util.Set;
  */
 public class WebCrawler implements WebCrawlerInterface {
 
-	private final InvertedIndex index;
+	private final MutableIndexInterface index;
 	private final LinkedList<String> queue;
 	private final Set<String> urls;
 
@@ -25,7 +25,7 @@ public class WebCrawler implements WebCrawlerInterface {
 	 *            The InvertedIndex object that words from sendToIndex() will be
 	 *            sent to.
 	 */
-	public WebCrawler(InvertedIndex index) {
+	public WebCrawler(MutableIndexInterface index) {
 		this.index = index;
 		this.queue = new LinkedList<>();
 		this.urls = new HashSet<>();
@@ -22,23 +22,18 @@ public interface WebCrawlerInterface {
 	public void addSeed(String seed) throws UnknownHostException, MalformedURLException, IOException;
 
 	/**
-	 * Takes in HTML and that html's absolute URL and sends each word's name,
-	 * file that it is found in, and position within the file to the
-	 * InvertedIndex to be added in.
+	 * Takes in HTML and that html's absolute URL and sends its words, and the
+	 * file that they are found in, to the InvertedIndex to be added in all at
+	 * once.
 	 * 
 	 * @param html
 	 *            The HTML containing the words that this method will grab.
 	 * @param link
 	 *            The web-page's URL name that the word is found in.
 	 */
-	public static void sendToIndex(String html, String link, InvertedIndex index) {
+	public static void sendToIndex(String html, String link, MutableIndexInterface index) {
 		String[] words = HTMLCleaner.fetchHTMLWords(html);
-		int position = 1;
-
-		for (String word : words) {
-			index.add(word, link, position);
-			position++;
-		}
+		index.addDocument(link, words, words.length, 1);
 	}
 
 }